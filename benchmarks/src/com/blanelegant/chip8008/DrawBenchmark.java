@@ -0,0 +1,62 @@
+package com.blanelegant.chip8008;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sprite throughput of {@link Chip8#opDXYN(Instruction)}, called directly, for sprites aligned to a byte, straddling
+ * two bytes and clipped at the right and bottom edges.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class DrawBenchmark {
+
+    @Param({ "0", "13", "60" })
+    public int x;
+
+    @Param({ "5", "15" })
+    public int height;
+
+    @Param({ "4", "28" })
+    public int y;
+
+    private Chip8 chip;
+    private Instruction draw;
+
+    @Setup
+    public void setup() {
+        chip = new Chip8();
+        chip.initialize();
+
+        // a sprite with every bit pattern, some rows colliding with what the previous draw left
+        for (int i = 0; i < 15; i++) {
+            chip.writeMemory(0x300 + i, (char) (0x5A ^ (i * 0x11)));
+        }
+        chip.index = 0x300;
+
+        chip.register[0] = (char) x;
+        chip.register[1] = (char) y;
+        draw = InstructionTable.TABLE[0xD010 | height];
+    }
+
+    @Benchmark
+    public long draw() {
+        chip.opDXYN(draw);
+        return chip.dirtyRows;
+    }
+}
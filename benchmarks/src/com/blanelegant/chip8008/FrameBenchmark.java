@@ -0,0 +1,79 @@
+package com.blanelegant.chip8008;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The frame path behind Main.updateScreen() without a screen: publishing a frame through the
+ * {@link FrameExchange}, taking it and converting its dirty rows into an off-screen {@link ArgbFrame}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class FrameBenchmark {
+
+    // every low resolution row, a sprite's worth and a single one
+    @Param({ "32", "5", "1" })
+    public int dirtyRows;
+
+    // 64x32, or SUPER-CHIP 128x64
+    @Param({ "false", "true" })
+    public boolean highResolution;
+
+    private int width;
+    private int height;
+    private long[] rows;
+    private long dirty;
+
+    private FrameExchange frames;
+    private ArgbFrame frame;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+
+        width = highResolution ? Chip8.HIRES_WIDTH : Chip8.DISPLAY_WIDTH;
+        height = highResolution ? Chip8.HIRES_HEIGHT : Chip8.DISPLAY_HEIGHT;
+
+        rows = new long[Chip8.PLANES * Chip8.PLANE_WORDS];
+        for (int i = 0; i < width / 64 * height; i++) {
+            rows[i] = random.nextLong();
+        }
+        dirty = (-1L >>> (64 - dirtyRows)) << (height - dirtyRows) / 2;
+
+        frames = new FrameExchange();
+        frame = new ArgbFrame();
+        frame.update(rows, width, height, 0);
+    }
+
+    @Benchmark
+    public int convert() {
+        frame.update(rows, width, height, dirty);
+        return frame.pixels[0];
+    }
+
+    @Benchmark
+    public int publishTakeConvert() {
+        frames.publish(rows, width, height, dirty);
+
+        FrameExchange.Frame taken = frames.take();
+        frame.update(taken.rows, taken.width, taken.height, taken.dirtyRows);
+
+        return frame.pixels[0];
+    }
+}
@@ -0,0 +1,80 @@
+package com.blanelegant.chip8008;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link Chip8#load(Path)} for a small ROM and one filling all of memory, on top of the reset before it, and
+ * of resetting to a shared {@link RomImage} instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class LoadBenchmark {
+
+    @Param({ "256", "3584" })
+    public int size;
+
+    private Chip8 chip;
+    private Path file;
+    private RomImage image;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] bytes = new byte[size];
+        new Random(0).nextBytes(bytes);
+
+        file = Files.createTempFile("rom", ".ch8");
+        Files.write(file, bytes);
+        image = new RomImage(bytes);
+
+        chip = new Chip8();
+        chip.initialize();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public char initializeAndLoad() throws IOException {
+        chip.initialize();
+        chip.load(file);
+
+        return chip.memory[0x200];
+    }
+
+    @Benchmark
+    public char resetToImage() {
+        chip.reset(image);
+
+        return chip.memory[0x200];
+    }
+
+    @Benchmark
+    public char initialize() {
+        chip.initialize();
+
+        return chip.memory[0x200];
+    }
+}
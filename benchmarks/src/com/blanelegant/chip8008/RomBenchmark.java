@@ -0,0 +1,115 @@
+package com.blanelegant.chip8008;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole ROM runs: reset, load and run a fixed number of cycles, interpreted one instruction at a time, through the
+ * block cache and through the recompiler. Runs a built-in demo filling the screen with random digits, or any ROM
+ * given with -p rom=PATH.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class RomBenchmark {
+
+    // draws rows of random digits, stores their BCD and calls a subroutine, round and round
+    static final int[] DEMO = {
+            0x00E0, // 200: CLS
+            0x6000, // 202: V0 = 0
+            0x6100, // 204: V1 = 0
+            0xC20F, // 206: V2 = random digit
+            0xF229, // 208: I = font(V2)
+            0xD015, // 20A: draw at V0, V1
+            0x7008, // 20C: V0 += 8
+            0x3040, // 20E: skip if V0 == 64
+            0x1206, // 210: next digit
+            0x6000, // 212: V0 = 0
+            0x7106, // 214: V1 += 6
+            0x311E, // 216: skip if V1 == 30
+            0x1206, // 218: next row
+            0xA300, // 21A: I = 0x300
+            0xF233, // 21C: BCD of V2
+            0xF265, // 21E: load V0-V2
+            0x8124, // 220: V1 += V2
+            0x2226, // 222: call 226
+            0x1200, // 224: start over
+            0x8E16, // 226: VE >>= 1
+            0x00EE, // 228: return
+    };
+
+    @Param({ "interpreter", "blocks", "recompiler" })
+    public String mode;
+
+    @Param({ "1000000" })
+    public int cycles;
+
+    @Param({ "" })
+    public String rom;
+
+    private Chip8 chip;
+    private Path file;
+    private boolean temporary;
+
+    @Setup
+    public void setup() throws IOException {
+        if (rom.isEmpty()) {
+            byte[] bytes = new byte[DEMO.length * 2];
+            for (int i = 0; i < DEMO.length; i++) {
+                bytes[i * 2] = (byte) (DEMO[i] >>> 8);
+                bytes[i * 2 + 1] = (byte) DEMO[i];
+            }
+
+            file = Files.createTempFile("demo", ".ch8");
+            Files.write(file, bytes);
+            temporary = true;
+        } else {
+            file = Paths.get(rom);
+        }
+
+        chip = new Chip8();
+        chip.initialize();
+
+        if (mode.equals("blocks")) {
+            chip.setBlockCacheEnabled(true);
+        } else if (mode.equals("recompiler")) {
+            chip.setRecompiler(new BlockCompiler()); // kept across runs, like the emulator does
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (temporary) {
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public long run() throws UnknownOpcodeException, IOException {
+        chip.initialize();
+        chip.setSeed(0);
+        chip.load(file);
+        chip.run(cycles);
+
+        return chip.cycles;
+    }
+}
@@ -0,0 +1,96 @@
+package com.blanelegant.chip8008;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single {@link Chip8#tick()} per class of opcode. The machine runs a loop of 32 copies of the opcode,
+ * headed by an ANNN resetting I and closed by a jump back, so 2 in every 34 instructions are loop overhead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class TickBenchmark {
+
+    static final int TICKS = 34 * 100;
+
+    @Param({ "00E0", "2NNN", "3XNN", "6XNN", "7XNN", "8XY4", "8XY6", "ANNN", "CXNN", "DXYN", "EX9E", "FX07", "FX15",
+            "FX1E", "FX29", "FX33", "FX55", "FX65" })
+    public String opcode;
+
+    private Chip8 chip;
+
+    @Setup
+    public void setup() {
+        chip = new Chip8();
+        chip.initialize();
+        chip.setSeed(0);
+
+        int address = 0x200;
+        address = put(address, 0xA600); // I = 0x600, out of the way of the code
+        for (int i = 0; i < 32; i++) {
+            address = put(address, opcodeFor(opcode));
+        }
+        put(address, 0x1200);
+
+        put(0x300, 0x00EE); // subroutine called by 2NNN
+
+        chip.register[0] = 13; // sprites straddle a byte boundary
+        chip.register[1] = 7;
+    }
+
+    private int put(int address, int opcode) {
+        chip.writeMemory(address, (char) (opcode >>> 8));
+        chip.writeMemory(address + 1, (char) (opcode & 0xFF));
+        return address + 2;
+    }
+
+    private static int opcodeFor(String name) {
+        switch (name) {
+            case "00E0": return 0x00E0;
+            case "2NNN": return 0x2300; // call and return, both counted as ticks
+            case "3XNN": return 0x31FF; // never skips
+            case "6XNN": return 0x6242;
+            case "7XNN": return 0x7201;
+            case "8XY4": return 0x8214;
+            case "8XY6": return 0x8216;
+            case "ANNN": return 0xA600;
+            case "CXNN": return 0xC2FF;
+            case "DXYN": return 0xD015;
+            case "EX9E": return 0xE29E; // key up, never skips
+            case "FX07": return 0xF207;
+            case "FX15": return 0xF215;
+            case "FX1E": return 0xF11E;
+            case "FX29": return 0xF129;
+            case "FX33": return 0xF233;
+            case "FX55": return 0xF355;
+            case "FX65": return 0xF365;
+            default: throw new IllegalArgumentException(name);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public long tick() throws UnknownOpcodeException {
+        for (int i = 0; i < TICKS; i++) {
+            chip.tick();
+        }
+
+        return chip.cycles;
+    }
+}
@@ -0,0 +1,65 @@
+package com.blanelegant.chip8008;
+
+/**
+ * ARGB copy of the CHIP-8 display, one int per native pixel. Only rows flagged as dirty are converted, so an
+ * unchanged screen costs nothing. Has no UI dependencies, so frames can be converted off-screen as well.
+ */
+final class ArgbFrame {
+
+    static final int PIXEL_ON = 0xFF808080; // gray
+    static final int PIXEL_OFF = 0xFF000000; // black
+
+    // XO-CHIP colours of pixels set in the second bitplane only, and in both
+    static final int PIXEL_PLANE_2 = 0xFF404040;
+    static final int PIXEL_BOTH = 0xFFFFFFFF;
+
+    private static final int[] COLOURS = { PIXEL_OFF, PIXEL_ON, PIXEL_PLANE_2, PIXEL_BOTH };
+
+    // resolution of the display last converted
+    int width;
+    int height;
+    final int[] pixels = new int[Chip8.HIRES_WIDTH * Chip8.HIRES_HEIGHT];
+
+    ArgbFrame() {
+        width = Chip8.DISPLAY_WIDTH;
+        height = Chip8.DISPLAY_HEIGHT;
+    }
+
+    /**
+     * Converts the dirty rows of a packed display into ARGB pixels, all of them when the resolution changed.
+     * @param rows laid out as in {@link Chip8#graphics}, leftmost pixel in the most significant bit
+     * @param dirtyRows bit y set for every row y to convert
+     * @return the rows converted
+     */
+    long update(long[] rows, int width, int height, long dirtyRows) {
+        if (width != this.width || height != this.height) {
+            this.width = width;
+            this.height = height;
+            dirtyRows = -1L >>> (64 - height);
+        }
+
+        int words = width / 64;
+
+        for (long dirty = dirtyRows; dirty != 0; dirty &= dirty - 1) { // clear lowest set bit
+            int y = Long.numberOfTrailingZeros(dirty);
+
+            for (int word = 0; word < words; word++) {
+                long plane1 = rows[y * words + word];
+                long plane2 = rows[Chip8.PLANE_WORDS + y * words + word];
+                int offset = y * width + word * 64;
+
+                if (plane2 == 0) {
+                    for (int x = 0; x < 64; x++) {
+                        pixels[offset + x] = (plane1 << x) < 0 ? PIXEL_ON : PIXEL_OFF;
+                    }
+                } else {
+                    for (int x = 0; x < 64; x++) {
+                        pixels[offset + x] = COLOURS[(int) ((plane1 << x) >>> 63 | (plane2 << x) >>> 63 << 1)];
+                    }
+                }
+            }
+        }
+
+        return dirtyRows;
+    }
+}
@@ -0,0 +1,89 @@
+package com.blanelegant.chip8008;
+
+/**
+ * A straight-line run of pre-decoded instructions. A block ends after the first instruction that may branch or
+ * write to memory, so everything before its last instruction is guaranteed to execute in order.
+ *
+ * The interpreter runs the block's program, the same instructions with common pairs fused into
+ * {@link Superinstructions}. A block ending in a skip over a jump also takes in the jump, fused with the skip into
+ * a conditional jump, so a run of the block takes one instruction less than its length when the skip is taken.
+ */
+final class BasicBlock {
+
+    final int start; // address of the first instruction
+    final int end; // address just past the last instruction, or past a jump fused onto a closing skip
+    final Instruction[] instructions; // one per opcode, as the recompiler translates them
+    final Instruction[] program; // what the interpreter runs
+    private final int length;
+
+    int executions; // hotness counter, bumped on every visit
+
+    // translation of the first compiledLength instructions, null while the block is interpreted
+    CompiledBlock compiled;
+    int compiledLength;
+
+    BasicBlock(int start, Instruction[] instructions, Instruction[] program) {
+        int length = 0;
+        for (Instruction instruction : program) {
+            length += instruction.length();
+        }
+
+        this.start = start;
+        this.end = start + length * 2;
+        this.instructions = instructions;
+        this.program = program;
+        this.length = length;
+    }
+
+    /**
+     * Number of instructions, and so cycles, a run of this block takes at most.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Executes the block, through its compiled code when there is some.
+     * @param budget instructions that may be executed, at least the length of the block
+     * @return the number of instructions executed
+     */
+    int execute(Chip8 chip, int budget) throws UnknownOpcodeException {
+        if (compiled == null) {
+            long cycles = chip.cycles;
+            interpret(chip, program, 0);
+            return (int) (chip.cycles - cycles);
+        }
+
+        int executed = compiled.run(chip, budget);
+
+        // the compiled code exits in front of the first instruction it doesn't translate, a fused jump is left to
+        // the block it starts
+        if (compiledLength < instructions.length) {
+            interpret(chip, instructions, compiledLength);
+            executed += instructions.length - compiledLength;
+        }
+
+        return executed;
+    }
+
+    /**
+     * Executes the given instructions in order, starting at the given one.
+     */
+    private static void interpret(Chip8 chip, Instruction[] instructions, int first) throws UnknownOpcodeException {
+        for (int i = first; i < instructions.length; i++) {
+            Instruction instruction = instructions[i];
+
+            chip.current_instruction = instruction.opcode;
+            chip.program_counter += 2;
+            chip.cycles++;
+            instruction.handler.execute(chip, instruction);
+        }
+    }
+
+    /**
+     * Whether the block was decoded from the given address.
+     */
+    boolean covers(int address) {
+        return address >= start && address < end;
+    }
+}
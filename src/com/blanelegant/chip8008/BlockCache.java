@@ -0,0 +1,158 @@
+package com.blanelegant.chip8008;
+
+import java.util.Arrays;
+
+/**
+ * Cache of decoded {@link BasicBlock}s keyed by their start address. Blocks are decoded from memory on the first
+ * visit and reused afterwards until a store into one of their bytes invalidates them.
+ *
+ * The tables are split in pages of 256 addresses, allocated on first use, so a machine only pays for the parts of
+ * memory it actually runs code from, however large its memory.
+ */
+final class BlockCache {
+
+    // upper bound on the instructions decoded into a block
+    static final int MAX_BLOCK_LENGTH = 32;
+
+    // how far back invalidation has to look, a block reaching one jump past its instructions
+    private static final int MAX_BLOCK_BYTES = (MAX_BLOCK_LENGTH + 1) * 2;
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGES = Chip8.XO_MEMORY_SIZE >>> PAGE_BITS;
+
+    private final BasicBlock[][] blocks = new BasicBlock[PAGES][]; // indexed by start address
+    private final byte[][] coverage = new byte[PAGES][]; // number of cached blocks decoded from each address
+
+    /**
+     * Returns the block starting at the given address, decoding it from memory first if it isn't cached.
+     */
+    BasicBlock lookup(char[] memory, int address) {
+        BasicBlock[] page = blocks[address >>> PAGE_BITS];
+        BasicBlock block = page == null ? null : page[address & (PAGE_SIZE - 1)];
+
+        if (block == null) {
+            block = decode(memory, address);
+            insert(block);
+        }
+
+        return block;
+    }
+
+    /**
+     * Drops every block that was decoded from the given address. Called for each byte stored into memory.
+     */
+    void invalidate(int address) {
+        byte[] covered = coverage[address >>> PAGE_BITS];
+
+        if (covered == null || covered[address & (PAGE_SIZE - 1)] == 0) {
+            return; // no code has been decoded from here
+        }
+
+        // only blocks starting at most one block length earlier can reach this address
+        for (int start = Math.max(0, address - MAX_BLOCK_BYTES + 1); start <= address; start++) {
+            BasicBlock[] page = blocks[start >>> PAGE_BITS];
+            BasicBlock block = page == null ? null : page[start & (PAGE_SIZE - 1)];
+
+            if (block != null && block.covers(address)) {
+                remove(block);
+            }
+        }
+    }
+
+    /**
+     * Drops every cached block, e.g. after a new ROM was loaded.
+     */
+    void clear() {
+        for (int page = 0; page < PAGES; page++) {
+            if (blocks[page] != null) {
+                Arrays.fill(blocks[page], null);
+                Arrays.fill(coverage[page], (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Decodes instructions from the given address until the first one that ends the block.
+     */
+    private BasicBlock decode(char[] memory, int start) {
+        Instruction[] instructions = new Instruction[MAX_BLOCK_LENGTH];
+        int length = 0;
+
+        for (int address = start; address + 1 < memory.length && length < MAX_BLOCK_LENGTH; address += 2) {
+            Instruction instruction = InstructionTable.TABLE[(memory[address] << 8) | memory[address + 1]];
+            instructions[length++] = instruction;
+
+            if (instruction.endsBlock()) {
+                break;
+            }
+        }
+
+        return new BasicBlock(start, Arrays.copyOf(instructions, length), fuse(memory, start, instructions, length));
+    }
+
+    /**
+     * Fuses the decoded instructions of a block into superinstructions where they pair up, taking in the jump
+     * following a closing skip.
+     */
+    private static Instruction[] fuse(char[] memory, int start, Instruction[] instructions, int length) {
+        Instruction[] program = new Instruction[length];
+        int fused = 0;
+
+        for (int i = 0; i < length; i++) {
+            Instruction pair = i + 1 < length ? Superinstructions.fuse(instructions[i], instructions[i + 1]) : null;
+
+            if (pair != null) {
+                program[fused++] = pair;
+                i++;
+            } else {
+                program[fused++] = instructions[i];
+            }
+        }
+
+        int next = start + length * 2;
+        Instruction last = fused == 0 ? null : program[fused - 1];
+
+        if (last != null && last.next == null && last.endsBlock() && next + 1 < memory.length) {
+            Instruction following = InstructionTable.TABLE[(memory[next] << 8) | memory[next + 1]];
+            Instruction jump = Superinstructions.fuse(last, following);
+
+            if (jump != null) {
+                program[fused - 1] = jump;
+            }
+        }
+
+        return Arrays.copyOf(program, fused);
+    }
+
+    private void insert(BasicBlock block) {
+        page(block.start)[block.start & (PAGE_SIZE - 1)] = block;
+
+        for (int address = block.start; address < block.end; address++) {
+            page(address); // a block may run into the next page
+            coverage[address >>> PAGE_BITS][address & (PAGE_SIZE - 1)]++;
+        }
+    }
+
+    private void remove(BasicBlock block) {
+        blocks[block.start >>> PAGE_BITS][block.start & (PAGE_SIZE - 1)] = null;
+
+        for (int address = block.start; address < block.end; address++) {
+            coverage[address >>> PAGE_BITS][address & (PAGE_SIZE - 1)]--;
+        }
+    }
+
+    /**
+     * The page of blocks holding the given address, allocating it and its coverage on first use.
+     */
+    private BasicBlock[] page(int address) {
+        int page = address >>> PAGE_BITS;
+
+        if (blocks[page] == null) {
+            blocks[page] = new BasicBlock[PAGE_SIZE];
+            coverage[page] = new byte[PAGE_SIZE];
+        }
+
+        return blocks[page];
+    }
+}
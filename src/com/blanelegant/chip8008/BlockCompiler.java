@@ -0,0 +1,957 @@
+package com.blanelegant.chip8008;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dynamic recompiler translating hot {@link BasicBlock}s into JVM classes, defined as hidden classes next to the
+ * interpreter. Inside a compiled block V0-VF, I and the cycle count live in locals and are only written back when
+ * the block exits, or for the cycle count, when a timer is accessed.
+ *
+ * A block is translated up to the first instruction the recompiler leaves to the interpreter (draws, key waits,
+ * unknown opcodes, jumps closing idle loops and most SUPER-CHIP and XO-CHIP extensions); the interpreter picks up
+ * from there. A block jumping back to its own start loops inside the generated code. Compiled code is attached to its
+ * block, so overwriting the code drops it together with the block. Compiled classes are cached by start address and
+ * opcodes, so machines sharing one compiler share the generated code for identical blocks.
+ *
+ * An exception thrown by a translated instruction, such as a stack overflow, leaves the machine as the interpreter
+ * would: the locals are written back with the pc, the cycle count and the current instruction of the instruction that
+ * threw. Blocks the JVM refuses to define are counted, logged and left to the interpreter.
+ */
+final class BlockCompiler {
+
+    // number of visits after which a block is worth translating
+    static final int HOT_THRESHOLD = 64;
+
+    private static final String CHIP8 = "com/blanelegant/chip8008/Chip8";
+    private static final String COMPILED_BLOCK = "com/blanelegant/chip8008/CompiledBlock";
+    private static final String RUN_DESCRIPTOR = "(L" + CHIP8 + ";I)I";
+
+    // local variable slots of the generated run method
+    private static final int CHIP = 1;
+    private static final int BUDGET = 2;
+    private static final int EXECUTED = 3;
+    private static final int REGISTERS = 4;
+    private static final int MEMORY = 5;
+    private static final int INDEX = 6;
+    private static final int PC = 7;
+    private static final int TEMP = 8;
+    private static final int V0 = 9; // V0-VF take up slots 9 through 24
+    private static final int BASE_CYCLES = V0 + 16; // long, cycle count on entry
+    private static final int THROWN = BASE_CYCLES + 2; // exception thrown by a translated instruction
+    private static final int MAX_LOCALS = THROWN + 1;
+    private static final int MAX_STACK = 8;
+
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private final Map<String, CompiledBlock> cache = new ConcurrentHashMap<>();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * Translates the given block and attaches the compiled code to it. Blocks starting with an instruction the
+     * recompiler doesn't translate are left to the interpreter.
+     */
+    void compile(BasicBlock block) {
+        int length = translatableLength(block);
+
+        if (length == 0) {
+            return;
+        }
+
+        StringBuilder key = new StringBuilder().append((char) block.start);
+        for (int i = 0; i < length; i++) {
+            key.append(block.instructions[i].opcode);
+        }
+
+        CompiledBlock compiled = cache.computeIfAbsent(key.toString(), k -> define(block, length));
+
+        if (compiled != null) {
+            block.compiledLength = length;
+            block.compiled = compiled;
+        }
+    }
+
+    /**
+     * Number of leading instructions of the block the recompiler is able to translate.
+     */
+    static int translatableLength(BasicBlock block) {
+        int length = 0;
+
+        while (length < block.instructions.length
+                && isTranslatable(block.instructions[length], block.start + length * 2)) {
+            length++;
+        }
+
+        return length;
+    }
+
+    private static boolean isTranslatable(Instruction instruction, int address) {
+        switch (instruction.name) {
+            case "1NNN":
+                // jumps that may close an idle loop are left to the interpreter, which detects and skips those
+                return instruction.nnn != address && instruction.nnn != address - 4;
+
+            case "00E0": // draws, scrolls and switches resolution or planes
+            case "DXYN":
+            case "00CN":
+            case "00DN":
+            case "00FB":
+            case "00FC":
+            case "00FE":
+            case "00FF":
+            case "FN01":
+            case "FX0A": // waits for a key
+            case "00FD": // exits
+            case "F000": // reads the address following it
+            case "5XY2": // SUPER-CHIP and XO-CHIP memory, flags and audio
+            case "5XY3":
+            case "FX30":
+            case "FX75":
+            case "FX85":
+            case "F002":
+            case "FX3A":
+            case InstructionTable.UNKNOWN:
+                return false;
+
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Number of translated blocks the JVM refused to define, which should stay at zero.
+     */
+    int failures() {
+        return failures.get();
+    }
+
+    private CompiledBlock define(BasicBlock block, int length) {
+        byte[] bytes = new Translation(block, length).toClassFile();
+
+        try {
+            MethodHandles.Lookup definition = lookup.defineHiddenClass(bytes, true);
+
+            return (CompiledBlock) definition.findConstructor(definition.lookupClass(),
+                    MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            failures.incrementAndGet();
+            System.err.printf("Cannot compile the block at %03X: %s%n", block.start, e);
+            return null; // leave the block to the interpreter
+        }
+    }
+
+    /**
+     * Translation of a single block into the bytes of a class implementing {@link CompiledBlock}.
+     */
+    private static final class Translation {
+
+        private final BasicBlock block;
+        private final int length;
+        private final boolean loops;
+
+        private final ConstantPool pool = new ConstantPool();
+        private final ByteVector code = new ByteVector();
+        private final ByteVector exceptions = new ByteVector(); // exception table of the run method
+        private int handlers;
+
+        Translation(BasicBlock block, int length) {
+            this.block = block;
+            this.length = length;
+
+            Instruction last = block.instructions[length - 1];
+            loops = length == block.instructions.length && last.name.equals("1NNN") && last.nnn == block.start;
+        }
+
+        byte[] toClassFile() {
+            int thisClass = pool.classRef(String.format("com/blanelegant/chip8008/Block%04X", block.start));
+            int superClass = pool.classRef("java/lang/Object");
+            int compiledBlock = pool.classRef(COMPILED_BLOCK);
+            int objectInit = pool.method("java/lang/Object", "<init>", "()V");
+            int codeAttribute = pool.utf8("Code");
+
+            // constructor
+            ByteVector init = new ByteVector();
+            init.u1(Opcodes.ALOAD).u1(0);
+            init.u1(Opcodes.INVOKESPECIAL).u2(objectInit);
+            init.u1(Opcodes.RETURN);
+
+            emitRun();
+
+            ByteVector methods = new ByteVector();
+            method(methods, "<init>", "()V", codeAttribute, init, new ByteVector(), 0, 1, 1);
+            method(methods, "run", RUN_DESCRIPTOR, codeAttribute, code, exceptions, handlers, MAX_STACK, MAX_LOCALS);
+
+            ByteVector classFile = new ByteVector();
+            classFile.u4(0xCAFEBABE).u2(0).u2(49); // old enough to not need stack map frames
+            classFile.u2(pool.count).bytes(pool.bytes);
+            classFile.u2(0x0010 | 0x0020); // ACC_FINAL | ACC_SUPER
+            classFile.u2(thisClass).u2(superClass);
+            classFile.u2(1).u2(compiledBlock); // interfaces
+            classFile.u2(0); // fields
+            classFile.u2(2).bytes(methods);
+            classFile.u2(0); // attributes
+
+            return classFile.toByteArray();
+        }
+
+        private void method(ByteVector out, String name, String descriptor, int codeAttribute, ByteVector body,
+                            ByteVector exceptionTable, int exceptionCount, int maxStack, int maxLocals) {
+            out.u2(0x0001).u2(pool.utf8(name)).u2(pool.utf8(descriptor)); // ACC_PUBLIC
+            out.u2(1).u2(codeAttribute).u4(12 + body.length + exceptionTable.length);
+            out.u2(maxStack).u2(maxLocals);
+            out.u4(body.length).bytes(body);
+            out.u2(exceptionCount).bytes(exceptionTable);
+            out.u2(0); // attributes
+        }
+
+        private void emitRun() {
+            int used = usedRegisters();
+
+            // prologue: pull the machine state into locals
+            code.u1(Opcodes.ALOAD).u1(CHIP);
+            code.u1(Opcodes.GETFIELD).u2(pool.field(CHIP8, "register", "[C"));
+            code.u1(Opcodes.ASTORE).u1(REGISTERS);
+            code.u1(Opcodes.ALOAD).u1(CHIP);
+            code.u1(Opcodes.GETFIELD).u2(pool.field(CHIP8, "memory", "[C"));
+            code.u1(Opcodes.ASTORE).u1(MEMORY);
+            code.u1(Opcodes.ALOAD).u1(CHIP);
+            code.u1(Opcodes.GETFIELD).u2(pool.field(CHIP8, "index", "C"));
+            code.u1(Opcodes.ISTORE).u1(INDEX);
+            code.u1(Opcodes.ALOAD).u1(CHIP);
+            code.u1(Opcodes.GETFIELD).u2(pool.field(CHIP8, "cycles", "J"));
+            code.u1(Opcodes.LSTORE).u1(BASE_CYCLES);
+            push(0);
+            code.u1(Opcodes.ISTORE).u1(EXECUTED);
+
+            for (int register = 0; register < 16; register++) {
+                if ((used & (1 << register)) != 0) {
+                    code.u1(Opcodes.ALOAD).u1(REGISTERS);
+                    push(register);
+                    code.u1(Opcodes.CALOAD);
+                    code.u1(Opcodes.ISTORE).u1(V0 + register);
+                }
+            }
+
+            int top = code.length;
+            int[] ends = new int[length + 1]; // bytecode of instruction i runs from ends[i] to ends[i + 1]
+            ends[0] = top;
+
+            for (int i = 0; i < length; i++) {
+                emit(block.instructions[i], block.start + i * 2);
+                ends[i + 1] = code.length;
+            }
+
+            code.u1(Opcodes.IINC).u1(EXECUTED).u1(length);
+
+            if (loops) {
+                // another pass if the budget allows it, otherwise leave with the pc on the start of the block
+                code.u1(Opcodes.ILOAD).u1(EXECUTED);
+                push(length);
+                code.u1(Opcodes.IADD);
+                code.u1(Opcodes.ILOAD).u1(BUDGET);
+                int exit = branch(Opcodes.IF_ICMPGT);
+                code.u1(Opcodes.GOTO).u2(top - code.length + 1);
+                bind(exit);
+                setPc(block.start);
+            } else if ((block.instructions[length - 1].flags & Instruction.BRANCH) == 0) {
+                setPc(block.start + length * 2); // fell through, or stopped in front of an untranslated instruction
+            }
+
+            // epilogue: write the locals back
+            writeBack(used);
+            setCurrentInstruction(block.instructions[length - 1].opcode);
+            storeCycles(0);
+
+            code.u1(Opcodes.ILOAD).u1(EXECUTED);
+            code.u1(Opcodes.IRETURN);
+
+            // handlers for exceptions thrown by each instruction, leaving the machine as fetching that one did
+            int[] rethrows = new int[length];
+
+            for (int i = 0; i < length; i++) {
+                if (ends[i] == ends[i + 1]) {
+                    rethrows[i] = -1; // nothing to protect, such as a jump back to the start of the block
+                    continue;
+                }
+
+                exceptions.u2(ends[i]).u2(ends[i + 1]).u2(code.length).u2(0); // any exception
+                handlers++;
+
+                code.u1(Opcodes.ASTORE).u1(THROWN);
+                setPc(block.start + i * 2 + 2);
+                setCurrentInstruction(block.instructions[i].opcode);
+                storeCycles(i + 1);
+                rethrows[i] = branch(Opcodes.GOTO);
+            }
+
+            for (int rethrow : rethrows) {
+                if (rethrow >= 0) {
+                    bind(rethrow);
+                }
+            }
+            if (handlers > 0) {
+                writeBack(used);
+                code.u1(Opcodes.ALOAD).u1(THROWN);
+                code.u1(Opcodes.ATHROW);
+            }
+        }
+
+        /**
+         * Writes the used registers, I and the pc back from the locals into the machine.
+         */
+        private void writeBack(int used) {
+            for (int register = 0; register < 16; register++) {
+                if ((used & (1 << register)) != 0) {
+                    code.u1(Opcodes.ALOAD).u1(REGISTERS);
+                    push(register);
+                    code.u1(Opcodes.ILOAD).u1(V0 + register);
+                    code.u1(Opcodes.CASTORE);
+                }
+            }
+
+            code.u1(Opcodes.ALOAD).u1(CHIP);
+            code.u1(Opcodes.ILOAD).u1(INDEX);
+            code.u1(Opcodes.I2C);
+            code.u1(Opcodes.PUTFIELD).u2(pool.field(CHIP8, "index", "C"));
+            code.u1(Opcodes.ALOAD).u1(CHIP);
+            code.u1(Opcodes.ILOAD).u1(PC);
+            code.u1(Opcodes.I2C);
+            code.u1(Opcodes.PUTFIELD).u2(pool.field(CHIP8, "program_counter", "C"));
+        }
+
+        private void setCurrentInstruction(int opcode) {
+            code.u1(Opcodes.ALOAD).u1(CHIP);
+            push(opcode);
+            code.u1(Opcodes.PUTFIELD).u2(pool.field(CHIP8, "current_instruction", "C"));
+        }
+
+        /**
+         * Bit mask of the registers read or written by the translated instructions.
+         */
+        private int usedRegisters() {
+            int used = 0;
+
+            for (int i = 0; i < length; i++) {
+                Instruction instruction = block.instructions[i];
+
+                used |= 1 << instruction.x | 1 << instruction.y;
+
+                switch (instruction.name) {
+                    case "8XY4":
+                    case "8XY5":
+                    case "8XY6":
+                    case "8XY7":
+                    case "8XYE":
+                        used |= 1 << 0xF;
+                        break;
+
+                    case "BNNN":
+                        used |= 1;
+                        break;
+
+                    case "FX55":
+                    case "FX65":
+                        used |= (2 << instruction.x) - 1;
+                        break;
+                }
+            }
+
+            return used;
+        }
+
+        /**
+         * Emits the bytecode for a single instruction located at the given address.
+         */
+        private void emit(Instruction instruction, int address) {
+            int vx = V0 + instruction.x;
+            int vy = V0 + instruction.y;
+            int vf = V0 + 0xF;
+            int offset = (address - block.start) / 2; // instructions in front of this one in the block
+
+            switch (instruction.name) {
+
+                case "00EE":
+                    code.u1(Opcodes.ALOAD).u1(CHIP);
+                    code.u1(Opcodes.DUP);
+                    code.u1(Opcodes.GETFIELD).u2(pool.field(CHIP8, "stack_pointer", "C"));
+                    push(1);
+                    code.u1(Opcodes.ISUB);
+                    code.u1(Opcodes.I2C);
+                    code.u1(Opcodes.PUTFIELD).u2(pool.field(CHIP8, "stack_pointer", "C"));
+                    code.u1(Opcodes.ALOAD).u1(CHIP);
+                    code.u1(Opcodes.GETFIELD).u2(pool.field(CHIP8, "stack", "[C"));
+                    code.u1(Opcodes.ALOAD).u1(CHIP);
+                    code.u1(Opcodes.GETFIELD).u2(pool.field(CHIP8, "stack_pointer", "C"));
+                    code.u1(Opcodes.CALOAD);
+                    code.u1(Opcodes.ISTORE).u1(PC);
+                    break;
+
+                case "1NNN":
+                    if (!loops) {
+                        setPc(instruction.nnn);
+                    }
+                    break;
+
+                case "2NNN":
+                    code.u1(Opcodes.ALOAD).u1(CHIP);
+                    code.u1(Opcodes.GETFIELD).u2(pool.field(CHIP8, "stack", "[C"));
+                    code.u1(Opcodes.ALOAD).u1(CHIP);
+                    code.u1(Opcodes.GETFIELD).u2(pool.field(CHIP8, "stack_pointer", "C"));
+                    push(address + 2);
+                    code.u1(Opcodes.CASTORE);
+                    code.u1(Opcodes.ALOAD).u1(CHIP);
+                    code.u1(Opcodes.DUP);
+                    code.u1(Opcodes.GETFIELD).u2(pool.field(CHIP8, "stack_pointer", "C"));
+                    push(1);
+                    code.u1(Opcodes.IADD);
+                    code.u1(Opcodes.I2C);
+                    code.u1(Opcodes.PUTFIELD).u2(pool.field(CHIP8, "stack_pointer", "C"));
+                    setPc(instruction.nnn);
+                    break;
+
+                case "3XNN":
+                    code.u1(Opcodes.ILOAD).u1(vx);
+                    push(instruction.nn);
+                    skip(Opcodes.IF_ICMPNE, address);
+                    break;
+
+                case "4XNN":
+                    code.u1(Opcodes.ILOAD).u1(vx);
+                    push(instruction.nn);
+                    skip(Opcodes.IF_ICMPEQ, address);
+                    break;
+
+                case "5XY0":
+                    code.u1(Opcodes.ILOAD).u1(vx);
+                    code.u1(Opcodes.ILOAD).u1(vy);
+                    skip(Opcodes.IF_ICMPNE, address);
+                    break;
+
+                case "6XNN":
+                    push(instruction.nn);
+                    code.u1(Opcodes.ISTORE).u1(vx);
+                    break;
+
+                case "7XNN":
+                    code.u1(Opcodes.ILOAD).u1(vx);
+                    push(instruction.nn);
+                    code.u1(Opcodes.IADD);
+                    push(0xFF);
+                    code.u1(Opcodes.IAND);
+                    code.u1(Opcodes.ISTORE).u1(vx);
+                    break;
+
+                case "8XY0":
+                    code.u1(Opcodes.ILOAD).u1(vy);
+                    code.u1(Opcodes.ISTORE).u1(vx);
+                    break;
+
+                case "8XY1":
+                    logical(vx, vy, Opcodes.IOR);
+                    break;
+
+                case "8XY2":
+                    logical(vx, vy, Opcodes.IAND);
+                    break;
+
+                case "8XY3":
+                    logical(vx, vy, Opcodes.IXOR);
+                    break;
+
+                case "8XY4":
+                    // VF = sum >> 8 is the carry, as both operands are below 256
+                    code.u1(Opcodes.ILOAD).u1(vx);
+                    code.u1(Opcodes.ILOAD).u1(vy);
+                    code.u1(Opcodes.IADD);
+                    code.u1(Opcodes.ISTORE).u1(TEMP);
+                    storeLowByte(vx);
+                    code.u1(Opcodes.ILOAD).u1(TEMP);
+                    push(8);
+                    code.u1(Opcodes.ISHR);
+                    code.u1(Opcodes.ISTORE).u1(vf);
+                    break;
+
+                case "8XY5":
+                    subtract(vx, vy, vx, vf);
+                    break;
+
+                case "8XY7":
+                    subtract(vy, vx, vx, vf);
+                    break;
+
+                case "8XY6":
+                    code.u1(Opcodes.ILOAD).u1(vy);
+                    code.u1(Opcodes.ISTORE).u1(TEMP);
+                    code.u1(Opcodes.ILOAD).u1(TEMP);
+                    push(1);
+                    code.u1(Opcodes.IUSHR);
+                    code.u1(Opcodes.ISTORE).u1(vx);
+                    code.u1(Opcodes.ILOAD).u1(TEMP);
+                    push(1);
+                    code.u1(Opcodes.IAND);
+                    code.u1(Opcodes.ISTORE).u1(vf);
+                    break;
+
+                case "8XYE":
+                    code.u1(Opcodes.ILOAD).u1(vy);
+                    code.u1(Opcodes.ISTORE).u1(TEMP);
+                    code.u1(Opcodes.ILOAD).u1(TEMP);
+                    push(1);
+                    code.u1(Opcodes.ISHL);
+                    push(0xFF);
+                    code.u1(Opcodes.IAND);
+                    code.u1(Opcodes.ISTORE).u1(vx);
+                    code.u1(Opcodes.ILOAD).u1(TEMP);
+                    push(7);
+                    code.u1(Opcodes.ISHR);
+                    push(1);
+                    code.u1(Opcodes.IAND);
+                    code.u1(Opcodes.ISTORE).u1(vf);
+                    break;
+
+                case "9XY0":
+                    code.u1(Opcodes.ILOAD).u1(vx);
+                    code.u1(Opcodes.ILOAD).u1(vy);
+                    skip(Opcodes.IF_ICMPEQ, address);
+                    break;
+
+                case "ANNN":
+                    push(instruction.nnn);
+                    code.u1(Opcodes.ISTORE).u1(INDEX);
+                    break;
+
+                case "BNNN":
+                    code.u1(Opcodes.ILOAD).u1(V0);
+                    push(instruction.nnn);
+                    code.u1(Opcodes.IADD);
+                    code.u1(Opcodes.ISTORE).u1(PC);
+                    break;
+
+                case "CXNN":
+                    code.u1(Opcodes.ALOAD).u1(CHIP);
+                    code.u1(Opcodes.INVOKEVIRTUAL).u2(pool.method(CHIP8, "nextRandom", "()I"));
+                    push(instruction.nn);
+                    code.u1(Opcodes.IAND);
+                    code.u1(Opcodes.ISTORE).u1(vx);
+                    break;
+
+                case "EX9E":
+                    keypad(vx);
+                    skip(Opcodes.IFEQ, address);
+                    break;
+
+                case "EXA1":
+                    keypad(vx);
+                    skip(Opcodes.IFNE, address);
+                    break;
+
+                case "FX07":
+                    storeCycles(offset + 1); // timers are derived from the cycle count
+                    code.u1(Opcodes.ALOAD).u1(CHIP);
+                    code.u1(Opcodes.INVOKEVIRTUAL).u2(pool.method(CHIP8, "delayTimer", "()C"));
+                    code.u1(Opcodes.ISTORE).u1(vx);
+                    break;
+
+                case "FX15":
+                    storeCycles(offset + 1);
+                    code.u1(Opcodes.ALOAD).u1(CHIP);
+                    code.u1(Opcodes.ILOAD).u1(vx);
+                    code.u1(Opcodes.INVOKEVIRTUAL).u2(pool.method(CHIP8, "setDelayTimer", "(C)V"));
+                    break;
+
+                case "FX18":
+                    storeCycles(offset + 1);
+                    code.u1(Opcodes.ALOAD).u1(CHIP);
+                    code.u1(Opcodes.ILOAD).u1(vx);
+                    code.u1(Opcodes.INVOKEVIRTUAL).u2(pool.method(CHIP8, "setSoundTimer", "(C)V"));
+                    break;
+
+                case "FX1E":
+                    code.u1(Opcodes.ILOAD).u1(vx);
+                    code.u1(Opcodes.ILOAD).u1(INDEX);
+                    code.u1(Opcodes.IADD);
+                    wrapAddress();
+                    code.u1(Opcodes.ISTORE).u1(INDEX);
+                    break;
+
+                case "FX29":
+                    code.u1(Opcodes.ILOAD).u1(vx);
+                    push(0x0F);
+                    code.u1(Opcodes.IAND);
+                    push(5);
+                    code.u1(Opcodes.IMUL);
+                    push(Chip8.FONT_START);
+                    code.u1(Opcodes.IADD);
+                    code.u1(Opcodes.ISTORE).u1(INDEX);
+                    break;
+
+                case "FX33":
+                    writeMemory(0, () -> {
+                        code.u1(Opcodes.ILOAD).u1(vx);
+                        push(100);
+                        code.u1(Opcodes.IDIV);
+                    });
+                    writeMemory(1, () -> {
+                        code.u1(Opcodes.ILOAD).u1(vx);
+                        push(10);
+                        code.u1(Opcodes.IDIV);
+                        push(10);
+                        code.u1(Opcodes.IREM);
+                    });
+                    writeMemory(2, () -> {
+                        code.u1(Opcodes.ILOAD).u1(vx);
+                        push(10);
+                        code.u1(Opcodes.IREM);
+                    });
+                    break;
+
+                case "FX55":
+                    for (int register = 0; register <= instruction.x; register++) {
+                        int slot = V0 + register;
+                        writeMemory(0, () -> code.u1(Opcodes.ILOAD).u1(slot));
+                        code.u1(Opcodes.IINC).u1(INDEX).u1(1);
+                    }
+                    break;
+
+                case "FX65":
+                    for (int register = 0; register <= instruction.x; register++) {
+                        code.u1(Opcodes.ALOAD).u1(MEMORY);
+                        code.u1(Opcodes.ILOAD).u1(INDEX);
+                        wrapAddress();
+                        code.u1(Opcodes.CALOAD);
+                        code.u1(Opcodes.ISTORE).u1(V0 + register);
+                        code.u1(Opcodes.IINC).u1(INDEX).u1(1);
+                    }
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Untranslatable instruction " + instruction);
+            }
+        }
+
+        private void logical(int vx, int vy, int operation) {
+            code.u1(Opcodes.ILOAD).u1(vx);
+            code.u1(Opcodes.ILOAD).u1(vy);
+            code.u1(operation);
+            code.u1(Opcodes.ISTORE).u1(vx);
+        }
+
+        /**
+         * target = minuend - subtrahend, VF = 1 unless that borrowed.
+         */
+        private void subtract(int minuend, int subtrahend, int target, int vf) {
+            code.u1(Opcodes.ILOAD).u1(minuend);
+            code.u1(Opcodes.ILOAD).u1(subtrahend);
+            code.u1(Opcodes.ISUB);
+            code.u1(Opcodes.ISTORE).u1(TEMP);
+            storeLowByte(target);
+            code.u1(Opcodes.ILOAD).u1(TEMP);
+            push(31);
+            code.u1(Opcodes.IUSHR);
+            push(1);
+            code.u1(Opcodes.IXOR);
+            code.u1(Opcodes.ISTORE).u1(vf);
+        }
+
+        /**
+         * chip.cycles = cycles on entry + executed + instructions, where executed counts earlier passes of a loop.
+         */
+        private void storeCycles(int instructions) {
+            code.u1(Opcodes.ALOAD).u1(CHIP);
+            code.u1(Opcodes.LLOAD).u1(BASE_CYCLES);
+            code.u1(Opcodes.ILOAD).u1(EXECUTED);
+            if (instructions != 0) {
+                push(instructions);
+                code.u1(Opcodes.IADD);
+            }
+            code.u1(Opcodes.I2L);
+            code.u1(Opcodes.LADD);
+            code.u1(Opcodes.PUTFIELD).u2(pool.field(CHIP8, "cycles", "J"));
+        }
+
+        private void storeLowByte(int slot) {
+            code.u1(Opcodes.ILOAD).u1(TEMP);
+            push(0xFF);
+            code.u1(Opcodes.IAND);
+            code.u1(Opcodes.ISTORE).u1(slot);
+        }
+
+        private void keypad(int vx) {
+            code.u1(Opcodes.ALOAD).u1(CHIP);
+            code.u1(Opcodes.GETFIELD).u2(pool.field(CHIP8, "keypad", "[C"));
+            code.u1(Opcodes.ILOAD).u1(vx);
+            push(0x0F);
+            code.u1(Opcodes.IAND);
+            code.u1(Opcodes.CALOAD);
+        }
+
+        /**
+         * Wraps the address on the stack around the end of memory, as the interpreter does.
+         */
+        private void wrapAddress() {
+            code.u1(Opcodes.ALOAD).u1(MEMORY);
+            code.u1(Opcodes.ARRAYLENGTH);
+            push(-1);
+            code.u1(Opcodes.IADD);
+            code.u1(Opcodes.IAND);
+        }
+
+        /**
+         * Stores a value through Chip8.writeMemory so cached blocks get invalidated, then reloads memory, which the
+         * first store into a shared ROM image replaces with a copy.
+         */
+        private void writeMemory(int offset, Runnable value) {
+            code.u1(Opcodes.ALOAD).u1(CHIP);
+            code.u1(Opcodes.ILOAD).u1(INDEX);
+            if (offset != 0) {
+                push(offset);
+                code.u1(Opcodes.IADD);
+            }
+            wrapAddress();
+            value.run();
+            code.u1(Opcodes.I2C);
+            code.u1(Opcodes.INVOKEVIRTUAL).u2(pool.method(CHIP8, "writeMemory", "(IC)V"));
+            code.u1(Opcodes.ALOAD).u1(CHIP);
+            code.u1(Opcodes.GETFIELD).u2(pool.field(CHIP8, "memory", "[C"));
+            code.u1(Opcodes.ASTORE).u1(MEMORY);
+        }
+
+        /**
+         * Sets the pc past the next instruction when the comparison on the stack fails the given branch.
+         */
+        private void skip(int noSkipBranch, int address) {
+            int noSkip = branch(noSkipBranch);
+            setPc(address + 4);
+
+            // in XO-CHIP memory, F000 NNNN is skipped as a whole
+            code.u1(Opcodes.ALOAD).u1(MEMORY);
+            code.u1(Opcodes.ARRAYLENGTH);
+            push(Chip8.XO_MEMORY_SIZE);
+            int small = branch(Opcodes.IF_ICMPNE);
+            code.u1(Opcodes.ALOAD).u1(MEMORY);
+            push((address + 2) & 0xFFFF);
+            code.u1(Opcodes.CALOAD);
+            push(0xF0);
+            int notLong = branch(Opcodes.IF_ICMPNE);
+            code.u1(Opcodes.ALOAD).u1(MEMORY);
+            push((address + 3) & 0xFFFF);
+            code.u1(Opcodes.CALOAD);
+            int notLongLow = branch(Opcodes.IFNE);
+            setPc(address + 6);
+            bind(small);
+            bind(notLong);
+            bind(notLongLow);
+
+            int done = branch(Opcodes.GOTO);
+            bind(noSkip);
+            setPc(address + 2);
+            bind(done);
+        }
+
+        private void setPc(int address) {
+            push(address);
+            code.u1(Opcodes.ISTORE).u1(PC);
+        }
+
+        private void push(int value) {
+            if (value >= -1 && value <= 5) {
+                code.u1(Opcodes.ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.u1(Opcodes.BIPUSH).u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.u1(Opcodes.SIPUSH).u2(value);
+            } else {
+                code.u1(Opcodes.LDC_W).u2(pool.integer(value));
+            }
+        }
+
+        /**
+         * Emits a forward branch and returns its position, to be passed to {@link #bind(int)}.
+         */
+        private int branch(int opcode) {
+            int position = code.length;
+            code.u1(opcode).u2(0);
+            return position;
+        }
+
+        private void bind(int branch) {
+            code.patch2(branch + 1, code.length - branch);
+        }
+    }
+
+    /**
+     * Constant pool of a class file under construction, reusing equal entries.
+     */
+    private static final class ConstantPool {
+
+        final ByteVector bytes = new ByteVector();
+        int count = 1;
+
+        private final Map<String, Integer> entries = new HashMap<>();
+
+        int utf8(String value) {
+            Integer entry = entries.get("U" + value);
+            if (entry != null) {
+                return entry;
+            }
+
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8); // class file names here are plain ASCII
+            bytes.u1(1).u2(encoded.length).bytes(encoded);
+            return add("U" + value);
+        }
+
+        int integer(int value) {
+            Integer entry = entries.get("I" + value);
+            if (entry != null) {
+                return entry;
+            }
+
+            bytes.u1(3).u4(value);
+            return add("I" + value);
+        }
+
+        int classRef(String name) {
+            return reference(7, "C" + name, utf8(name), -1);
+        }
+
+        int field(String owner, String name, String descriptor) {
+            return reference(9, "F" + owner + "." + name, classRef(owner), nameAndType(name, descriptor));
+        }
+
+        int method(String owner, String name, String descriptor) {
+            return reference(10, "M" + owner + "." + name + descriptor, classRef(owner),
+                    nameAndType(name, descriptor));
+        }
+
+        private int nameAndType(String name, String descriptor) {
+            return reference(12, "N" + name + descriptor, utf8(name), utf8(descriptor));
+        }
+
+        private int reference(int tag, String key, int first, int second) {
+            Integer entry = entries.get(key);
+            if (entry != null) {
+                return entry;
+            }
+
+            bytes.u1(tag).u2(first);
+            if (second >= 0) {
+                bytes.u2(second);
+            }
+            return add(key);
+        }
+
+        private int add(String key) {
+            entries.put(key, count);
+            return count++;
+        }
+    }
+
+    /**
+     * Growable big-endian byte buffer.
+     */
+    private static final class ByteVector {
+
+        byte[] data = new byte[256];
+        int length;
+
+        ByteVector u1(int value) {
+            ensure(1);
+            data[length++] = (byte) value;
+            return this;
+        }
+
+        ByteVector u2(int value) {
+            return u1(value >>> 8).u1(value);
+        }
+
+        ByteVector u4(int value) {
+            return u2(value >>> 16).u2(value);
+        }
+
+        ByteVector bytes(byte[] value) {
+            ensure(value.length);
+            System.arraycopy(value, 0, data, length, value.length);
+            length += value.length;
+            return this;
+        }
+
+        ByteVector bytes(ByteVector value) {
+            ensure(value.length);
+            System.arraycopy(value.data, 0, data, length, value.length);
+            length += value.length;
+            return this;
+        }
+
+        void patch2(int position, int value) {
+            data[position] = (byte) (value >>> 8);
+            data[position + 1] = (byte) value;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, length);
+        }
+
+        private void ensure(int size) {
+            if (length + size > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + size));
+            }
+        }
+    }
+
+    /**
+     * The JVM opcodes the recompiler emits.
+     */
+    private static final class Opcodes {
+        static final int ICONST_0 = 3;
+        static final int BIPUSH = 16;
+        static final int SIPUSH = 17;
+        static final int LDC_W = 19;
+        static final int ILOAD = 21;
+        static final int LLOAD = 22;
+        static final int ALOAD = 25;
+        static final int CALOAD = 52;
+        static final int ISTORE = 54;
+        static final int LSTORE = 55;
+        static final int ASTORE = 58;
+        static final int CASTORE = 85;
+        static final int DUP = 89;
+        static final int IADD = 96;
+        static final int LADD = 97;
+        static final int ISUB = 100;
+        static final int IMUL = 104;
+        static final int IDIV = 108;
+        static final int IREM = 112;
+        static final int ISHL = 120;
+        static final int ISHR = 122;
+        static final int IUSHR = 124;
+        static final int IAND = 126;
+        static final int IOR = 128;
+        static final int IXOR = 130;
+        static final int IINC = 132;
+        static final int I2L = 133;
+        static final int I2C = 146;
+        static final int IFEQ = 153;
+        static final int IFNE = 154;
+        static final int IF_ICMPEQ = 159;
+        static final int IF_ICMPNE = 160;
+        static final int IF_ICMPGT = 163;
+        static final int GOTO = 167;
+        static final int IRETURN = 172;
+        static final int RETURN = 177;
+        static final int GETFIELD = 180;
+        static final int PUTFIELD = 181;
+        static final int INVOKEVIRTUAL = 182;
+        static final int INVOKESPECIAL = 183;
+        static final int ARRAYLENGTH = 190;
+        static final int ATHROW = 191;
+
+        private Opcodes() {
+
+        }
+    }
+}
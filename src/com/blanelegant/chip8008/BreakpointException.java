@@ -0,0 +1,16 @@
+package com.blanelegant.chip8008;
+
+/**
+ * Thrown by a {@link Debugger} to stop the machine at a breakpoint or watchpoint, leaving it just before the
+ * instruction that hit it, which runs on when the machine is resumed. Unchecked, as only runners attaching a debugger
+ * ever see one, and they handle it apart from a machine failing on an unknown opcode.
+ */
+public class BreakpointException extends RuntimeException {
+
+    final int address; // of the instruction that hit
+
+    BreakpointException(int address, String message) {
+        super(message);
+        this.address = address;
+    }
+}
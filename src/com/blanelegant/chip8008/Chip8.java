@@ -1,9 +1,8 @@
 package com.blanelegant.chip8008;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Random;
+import java.util.Arrays;
 
 /**
  * This is the main instruction interpreter for the chip8008 emulator.
@@ -11,22 +10,107 @@ import java.util.Random;
 
 public class Chip8 {
 
+    // native display resolution
+    static final int DISPLAY_WIDTH = 64;
+    static final int DISPLAY_HEIGHT = 32;
+    static final long ALL_ROWS = -1L >>> (64 - DISPLAY_HEIGHT);
+
+    // SUPER-CHIP high resolution, every row taking two longs
+    static final int HIRES_WIDTH = 128;
+    static final int HIRES_HEIGHT = 64;
+
+    // XO-CHIP bitplanes, each taking PLANE_WORDS longs of graphics, room enough for the high resolution screen
+    static final int PLANES = 2;
+    static final int PLANE_WORDS = HIRES_HEIGHT * HIRES_WIDTH / 64;
+
+    // addressable memory, 4 KB unless the ROM is an XO-CHIP one
+    static final int MEMORY_SIZE = 0x1000;
+    static final int XO_MEMORY_SIZE = 0x10000;
+
+    // instructions run per 60 Hz frame unless configured otherwise
+    static final int DEFAULT_CYCLES_PER_FRAME = 10;
+    static final int MAX_CYCLES_PER_FRAME = 0xFFFF; // as many as a save state holds
+
+    // kinds of idle loops, in which the machine spins without changing anything but the cycle count
+    static final int NOT_IDLE = 0;
+    static final int IDLE_JUMP = 1; // 1NNN jumping to itself
+    static final int IDLE_DELAY = 2; // FX07, 3X00, 1NNN polling the delay timer until it runs out
+    static final int IDLE_KEY = 3; // FX0A waiting for a key press
+
+    // built-in 4x5 hexadecimal font, should start at address 0x50 == 80
+    static final int FONT_START = 0x50;
+    static final char[] FONT_SET = {
+            0xF0, 0x90, 0x90, 0x90, 0xF0, // 0
+            0x20, 0x60, 0x20, 0x20, 0x70, // 1
+            0xF0, 0x10, 0xF0, 0x80, 0xF0, // 2
+            0xF0, 0x10, 0xF0, 0x10, 0xF0, // 3
+            0x90, 0x90, 0xF0, 0x10, 0x10, // 4
+            0xF0, 0x80, 0xF0, 0x10, 0xF0, // 5
+            0xF0, 0x80, 0xF0, 0x90, 0xF0, // 6
+            0xF0, 0x10, 0x20, 0x40, 0x40, // 7
+            0xF0, 0x90, 0xF0, 0x90, 0xF0, // 8
+            0xF0, 0x90, 0xF0, 0x10, 0xF0, // 9
+            0xF0, 0x90, 0xF0, 0x90, 0x90, // A
+            0xE0, 0x90, 0xE0, 0x90, 0xE0, // B
+            0xF0, 0x80, 0x80, 0x80, 0xF0, // C
+            0xE0, 0x90, 0x90, 0x90, 0xE0, // D
+            0xF0, 0x80, 0xF0, 0x80, 0xF0, // E
+            0xF0, 0x80, 0xF0, 0x80, 0x80  // F
+    };
+
+    // SUPER-CHIP 8x10 font for FX30, right after the small one, with the XO-CHIP letters
+    static final int BIG_FONT_START = FONT_START + 16 * 5;
+    static final char[] BIG_FONT_SET = {
+            0xFF, 0xFF, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xFF, 0xFF, // 0
+            0x18, 0x78, 0x78, 0x18, 0x18, 0x18, 0x18, 0x18, 0xFF, 0xFF, // 1
+            0xFF, 0xFF, 0x03, 0x03, 0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, // 2
+            0xFF, 0xFF, 0x03, 0x03, 0xFF, 0xFF, 0x03, 0x03, 0xFF, 0xFF, // 3
+            0xC3, 0xC3, 0xC3, 0xC3, 0xFF, 0xFF, 0x03, 0x03, 0x03, 0x03, // 4
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0x03, 0x03, 0xFF, 0xFF, // 5
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC3, 0xC3, 0xFF, 0xFF, // 6
+            0xFF, 0xFF, 0x03, 0x03, 0x06, 0x0C, 0x18, 0x18, 0x18, 0x18, // 7
+            0xFF, 0xFF, 0xC3, 0xC3, 0xFF, 0xFF, 0xC3, 0xC3, 0xFF, 0xFF, // 8
+            0xFF, 0xFF, 0xC3, 0xC3, 0xFF, 0xFF, 0x03, 0x03, 0xFF, 0xFF, // 9
+            0x7E, 0xFF, 0xC3, 0xC3, 0xC3, 0xFF, 0xFF, 0xC3, 0xC3, 0xC3, // A
+            0xFC, 0xFC, 0xC3, 0xC3, 0xFC, 0xFC, 0xC3, 0xC3, 0xFC, 0xFC, // B
+            0x3C, 0xFF, 0xC3, 0xC0, 0xC0, 0xC0, 0xC0, 0xC3, 0xFF, 0x3C, // C
+            0xFC, 0xFE, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xFE, 0xFC, // D
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, // E
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC0, 0xC0, 0xC0, 0xC0  // F
+    };
+
     // set up basic registers
     // char has length of 16 bits
     char current_instruction;
 
+    // shared with the loaded RomImage until the first store, see writeMemory
     char[] memory;
     char[] register;
 
     char index;
     char program_counter;
 
-    // timer registers
-    char delay_timer;
-    char sound_timer;
+    // instructions executed so far, the timers are derived from this
+    long cycles;
+    int cycles_per_frame = DEFAULT_CYCLES_PER_FRAME;
+
+    // timer registers, kept as the frame at which each timer runs out
+    long delay_timer_expiry;
+    long sound_timer_expiry;
+
+    // screen array, one long per row with the leftmost pixel in the most significant bit, two per row in high
+    // resolution; the second bitplane starts at PLANE_WORDS
+    long[] graphics;
+    long dirtyRows; // bit y is set when row y changed since the screen was last presented
+    boolean high_resolution;
+    int plane_mask = 1; // bitplanes drawn, cleared and scrolled, bit p for plane p
 
-    // screen array
-    char[] graphics;
+    // SUPER-CHIP flag registers saved and loaded by FX75 and FX85
+    char[] user_flags;
+
+    // XO-CHIP audio, kept as state for the tone to be generated from
+    char[] audio_pattern;
+    char pitch;
 
     // stack stuff
     char[] stack;
@@ -36,6 +120,25 @@ public class Chip8 {
 
     boolean drawFlag;
 
+    // idle loop the machine was found spinning in, set by the handlers and cleared by run()
+    int idle;
+    int idle_register; // VX of a delay timer polling loop
+
+    // SplitMix64 state CXNN draws its random numbers from, seeded for reproducible runs
+    long random_state = System.nanoTime();
+
+    // table tick() and run() dispatch opcodes through, instrumentation swaps in its own
+    Instruction[] dispatch = InstructionTable.TABLE;
+
+    // memory of the image memory was loaded from, for as long as memory is still that very array
+    private char[] shared_memory;
+
+    // decoded basic blocks, null when interpreting one instruction at a time
+    BlockCache blockCache;
+
+    // translates hot blocks to JVM bytecode, null when only interpreting
+    BlockCompiler recompiler;
+
     public Chip8() {
 
     }
@@ -44,264 +147,644 @@ public class Chip8 {
      * This method is used to (re)set-up the initial state of the machine.
      */
     void initialize() {
-        current_instruction = 0; // Reset current opcode
+        reset(RomImage.EMPTY);
+    }
 
-        memory = new char[4096]; // instantiate 4KB memory
-        register = new char[16]; // instantiate registers
+    /**
+     * Resets the machine in place and loads a ROM image. Resetting to the image already loaded keeps the decoded
+     * blocks, unless the machine stored into memory since.
+     */
+    void reset(RomImage image) {
+        current_instruction = 0; // Reset current opcode
 
         index = 0; // zero out index pointer
         program_counter = 0x200; // Program counter starts at 0x200
 
-        graphics = new char[64 * 32]; // 64 columns, 32 rows
-
-        stack = new char[16];
         stack_pointer = 0; // clear stack pointer
 
-        keypad = new char[16];
-
-        // Clear display
-        // Clear stack
-        // Clear registers V0-VF
-        // Clear memory
+        if (register == null) {
+            register = new char[16];
+            graphics = new long[PLANES * PLANE_WORDS]; // 64 columns packed into each of the 32 rows
+            stack = new char[16];
+            keypad = new char[16];
+            user_flags = new char[16];
+            audio_pattern = new char[16];
+        } else {
+            // Clear display
+            // Clear stack
+            // Clear registers V0-VF
+            Arrays.fill(register, (char) 0);
+            Arrays.fill(graphics, 0L);
+            Arrays.fill(stack, (char) 0);
+            Arrays.fill(keypad, (char) 0);
+            Arrays.fill(user_flags, (char) 0);
+            Arrays.fill(audio_pattern, (char) 0);
+        }
+        high_resolution = false;
+        plane_mask = 1;
+        pitch = 64; // 4000 Hz
+        dirtyRows = ALL_ROWS; // nothing has been presented yet
 
-        // Load fontset, should start at address 0x50 == 80
+        // Clear memory, the image comes with the fontset at 0x50
+        load(image);
 
         // Reset timers
+        cycles = 0;
+        delay_timer_expiry = 0;
+        sound_timer_expiry = 0;
+
+        idle = NOT_IDLE;
     }
 
     /**
-     * This method will be called for every clock cycle of the CPU we want to emulate.
+     * This method will be called for every clock cycle of the CPU we want to emulate. The instruction goes through
+     * the dispatch table, so instrumentation sees it like those run by {@link #run(int)}.
      */
     void tick() throws UnknownOpcodeException {
+        tick(dispatch);
+    }
+
+    /**
+     * Executes one instruction, dispatching it through the given table.
+     */
+    private void tick(Instruction[] table) throws UnknownOpcodeException {
         // fetch next opcode
         current_instruction = (char) ((memory[program_counter] << 8) | memory[program_counter + 1]);
+        program_counter += 2;
+        cycles++; // timers follow from the cycle count, nothing to update here
+
+        // Decode Opcode, the table already holds every opcode decoded with its operands
+        Instruction instruction = table[current_instruction];
 
-        // Decode Opcode
+        // Execute Opcode
+        instruction.handler.execute(this, instruction);
+    }
 
-        // possible initial nibble: 0, 1, 2, 3,4, 5, 6, 7, 8, 9, A, B, C, D, E, F
-        switch (current_instruction & 0xF000) {
-            
-            case 0x0000:
+    /**
+     * Executes instructions up to the end of the current 60 Hz frame.
+     * @return the number of instructions executed
+     */
+    int runFrame() throws UnknownOpcodeException {
+        return run((int) (cycles_per_frame - cycles % cycles_per_frame));
+    }
+
+    /**
+     * Executes the given number of instructions, going through the block cache when it is enabled and no
+     * instrumentation is installed.
+     * @return the number of instructions executed
+     */
+    int run(int cycles) throws UnknownOpcodeException {
+        int executed = 0;
+        idle = NOT_IDLE;
 
-                switch (current_instruction & 0x000F) {
+        // instrumentation sees every instruction through the dispatch table, which cached blocks bypass
+        Instruction[] table = dispatch;
 
-                    case 0x0000: // 00E0: Clears the screen.
-                        op00E0();
-                        break;
+        if (blockCache == null || table != InstructionTable.TABLE) {
+            while (executed < cycles) {
+                tick(table);
+                executed++;
 
-                    case 0x000E: // 00EE: Returns from a subroutine.
-                        op00EE();
-                        break;
+                if (idle != NOT_IDLE) {
+                    executed += skipIdle(cycles - executed);
                 }
+            }
+            return executed;
+        }
 
-                break;
-                
-            case 0x1000: // 1NNN: Jumps to address NNN.
-                op1NNN();
-                break;
-            
-            case 0x2000: // 2NNN: Calls subroutine at NNN.
-                op2NNN();
-                break;
-
-            // 3XNN: Skips the next instruction if VX = NN.
-            case 0x3000:
-                op3XNN();
-                break;
-                
-            case 0x4000: // 4XNN: Skips the next instruction if VX != NN.
-                op4XNN();
-                break;
-
-            case 0x5000: // 5XY0: Skips the next instruction if VX = VY.
-                op5XY0();
-                break;
-
-            case 0x6000: // 6XNN: Sets VX to NN.
-                op6XNN();
-                break;
-
-            case 0x7000: // 7XNN: Adds NN to VX. (Carry flag is not changed)
-                op7XNN();
-                break;
-
-            case 0x8000: // possible ending nibbles: 0, 1, 2, 3, 4, 5, 6 , 7, E
-
-                switch (current_instruction & 0x000F) {
-
-                    case 0x0000: // 8XY0: Sets VX to the value of VY.
-                        op8XY0();
-                        break;
-                        
-                    case 0x0001: // 8XY1: Sets VX to VX or VY. (Bitwise OR operation)
-                        op8XY1();
-                        break;
-                        
-                    case 0x0002: // 8XY2: Sets VX to VX and VY. (Bitwise AND operation)
-                        op8XY2();
-                        break;
-                        
-                    case 0x0003: // 8XY3: Sets VX to VX xor VY.
-                        op8XY3();
-                        break;
-                        
-                    case 0x0004: // 8XY4: Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't.
-                        op8XY4();
-                        break;
-
-                    case 0x0005: // 8XY5: VY is subtracted from VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
-                        op8XY5();
-                        break;
-
-                    case 0x0006: // 8XY6: Shifts VY right by one and copies the result to VX. VF is set to the value of the least significant bit of VY before the shift.[2]
-                        op8XY6();
-                        break;
-
-                    case 0x0007: // 8XY7: Sets VX to VY minus VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
-                        op8XY7();
-                        break;
-
-                    case 0x000E: // 8XYE: Shifts VY < 1, copies to VX. Sets VF to most sig bit of VY before shift.
-                        op8XYE();
-                        break;
+        while (executed < cycles) {
+            BasicBlock block = blockCache.lookup(memory, program_counter);
+            int length = block.length();
+
+            // finish off with single steps when a whole block would overshoot the budget
+            if (length == 0 || length > cycles - executed) {
+                tick();
+                executed++;
+            } else {
+                if (++block.executions == BlockCompiler.HOT_THRESHOLD && recompiler != null) {
+                    recompiler.compile(block);
+                }
+
+                executed += block.execute(this, cycles - executed);
             }
-                break;
 
-            case 0x9000: // 9XY0: Skips the next instruction if VX doesn't equal VY. (Usually the next instruction is a jump to skip a code block)
-                op9XY0();
-                break;
+            if (idle != NOT_IDLE) {
+                executed += skipIdle(cycles - executed);
+            }
+        }
 
-            case 0xA000: // ANNN: Sets I to the address.
-                opANNN();
-                break;
+        return executed;
+    }
 
-            case 0xB000: // BNNN: Jumps to the address NNN plus V0.
-                opBNNN();
-                break;
+    /**
+     * Skips over as many iterations of the idle loop just detected as fit in the budget, leaving the machine
+     * exactly as running them would have. The idle state stays set while the loop is known to go on afterwards.
+     * @return the number of cycles skipped
+     */
+    private int skipIdle(int budget) {
+        if (idle != IDLE_DELAY) {
+            // nothing changes until a key or a reset comes in, which only happens between runs
+            cycles += budget;
+            return budget;
+        }
 
-            case 0xC000: // CXNN: Sets VX to the result of & operation on a random number.
-                opCXNN();
-                break;
+        // iteration k reads the delay timer in cycle cycles + 3k + 1, the loop goes on while that isn't zero
+        long iterations = Math.max(0, (delay_timer_expiry * cycles_per_frame - cycles + 1) / 3);
+        long skipped = Math.min(iterations, budget / 3);
 
-            case 0xD000: // DXYN:Draws a sprite at coordinate (VX, VY) with a width of 8 pix, and a height of N pix.
-                opDXYN();
-                break;
+        if (skipped == 0) {
+            idle = NOT_IDLE;
+            return 0;
+        }
 
-            case 0xE000:
+        cycles += skipped * 3;
 
-                // Possible ending nibbles: E, 1.
-                switch(current_instruction & 0x000F) {
+        // VX holds what the last skipped iteration read, the jump was the last instruction executed
+        register[idle_register] = (char) Math.max(0, delay_timer_expiry - (cycles - 2) / cycles_per_frame);
+        current_instruction = (char) (0x1000 | program_counter);
 
-                    case 0x00E: // EX9E: Skips the next instruction if the key stored in VX is pressed.
-                        opEX9E();
-                        break;
+        if (skipped == iterations) {
+            idle = NOT_IDLE; // the next iteration leaves the loop
+        }
 
-                    case 0x001: // EXA1: Skips the next instruction if the key stored in VX isn't pressed.
-                        opEXA1();
-                        break;
-            }
-                break;
-
-            case 0xF000:
-
-                // possible ending nibbles: 07, 0A,
-                switch(current_instruction & 0x00FF) {
-                    
-                    case 0x0007: // FX07: Sets VX to the value of the delay timer.
-                        opFX07();
-                        break;
-
-                    case 0x000A: // FX0A: A key press is awaited, then stored in VX.
-                        opFX0A();
-                        break;
-                        
-                    case 0x0015: // FX15: Sets the delay timer to VX.
-                        opFX15();
-                        break;
-                    
-                    case 0x0018: // FX18: Sets the sound timer to VX.
-                        opFX18();
-                        break;
-                    
-                    case 0x001E: // FX1E: Adds VX to I.
-                        opFX1E();
-                        break;
-                        
-                    case 0x0029: // FX29: Sets I to the location f the sprite for the character in VX.
-                        opFX29();
-                        break;
-                        
-                    case 0x0033: // FX33: Stores the binary-coded decimal representation of VX, with the most significant of three digits at the address in I, the middle digit at I plus 1, and the least significant digit at I plus 2
-                        opFX33();
-                        break;
-
-                    case 0x0055: // FX55: Stores V0 VX in memory starting at address I. Is increased by 1 for each value written.
-                        opFX55();
-                        break;
-
-                    case 0x0065: // FX65: Fills V0 through VX with values from memory starting at address I. Is increased by 1 for eaach value written.
-                        opFX65();
-                        break;
-
-                    default:
-                        throw new UnknownOpcodeException();
+        return (int) skipped * 3;
+    }
+
+    /**
+     * Whether the last run ended spinning in an idle loop.
+     */
+    boolean isIdle() {
+        return idle != NOT_IDLE;
+    }
+
+    /**
+     * Frame at which a machine that ended its last run in an idle loop may first do something else, or
+     * Long.MAX_VALUE when only a key press or a reset can get it out.
+     */
+    long wakeFrame() {
+        long frame = frame();
+
+        switch (idle) {
+            case IDLE_DELAY:
+                return delay_timer_expiry;
+
+            case IDLE_KEY: {
+                // timers keep running out while waiting, e.g. to stop the tone
+                long wake = Long.MAX_VALUE;
+                if (delay_timer_expiry > frame) {
+                    wake = delay_timer_expiry;
                 }
-                break;
+                if (sound_timer_expiry > frame) {
+                    wake = Math.min(wake, sound_timer_expiry);
+                }
+                return wake;
+            }
+
+            case IDLE_JUMP:
+                return Long.MAX_VALUE;
+
+            default:
+                return frame;
         }
-        // Execute Opcode
+    }
 
-        // Update timers
+    /**
+     * Updates the keypad from a bit mask, bit n set while key n is held down.
+     */
+    void setKeys(int keys) {
+        for (int key = 0; key < keypad.length; key++) {
+            keypad[key] = (char) ((keys >>> key) & 0x1);
+        }
     }
 
     /**
-     * This method will be used to load the memory with a ROM file on disk.
+     * 64 bit FNV-1a hash of the screen, row by row. The second bitplane is only hashed once something is drawn in
+     * it, so a screen only ever using the first hashes the same as it always did.
      */
-    void load(Path file) {
-        byte[] fileArray;
-        
-        try {
-            fileArray = Files.readAllBytes(file);
+    long screenHash() {
+        int words = screenWords();
+        long hash = hash(0xcbf29ce484222325L, 0, words);
 
-            // iterate and read the bytes and transfer to memory
-            for (int i = 0; i < fileArray.length; i++) {
-                memory[0x200 + i] = (char) (0 | fileArray[i]);
+        for (int i = PLANE_WORDS; i < PLANE_WORDS + words; i++) {
+            if (graphics[i] != 0) {
+                return hash(hash, PLANE_WORDS, words);
             }
+        }
+
+        return hash;
+    }
 
-        } catch (IOException e) {
-    
+    private long hash(long hash, int from, int words) {
+        for (int i = from; i < from + words; i++) {
+            long row = graphics[i];
+
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                hash ^= (row >>> shift) & 0xFF;
+                hash *= 0x100000001b3L;
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Width of the screen in the current resolution, in pixels.
+     */
+    int screenWidth() {
+        return high_resolution ? HIRES_WIDTH : DISPLAY_WIDTH;
+    }
+
+    /**
+     * Height of the screen in the current resolution, in pixels.
+     */
+    int screenHeight() {
+        return high_resolution ? HIRES_HEIGHT : DISPLAY_HEIGHT;
+    }
+
+    /**
+     * Longs of graphics one bitplane of the screen takes up in the current resolution.
+     */
+    int screenWords() {
+        return high_resolution ? PLANE_WORDS : DISPLAY_HEIGHT;
+    }
+
+    /**
+     * Every row of the screen in the current resolution, as a mask of dirty rows.
+     */
+    long allRows() {
+        return high_resolution ? -1L : ALL_ROWS;
+    }
+
+    /**
+     * Number of 60 Hz frames completed so far.
+     */
+    long frame() {
+        return cycles / cycles_per_frame;
+    }
+
+    /**
+     * Sets the number of instructions executed per 60 Hz frame, keeping the timers' current values.
+     * @throws IllegalArgumentException if the number is below 1 or above {@link #MAX_CYCLES_PER_FRAME}
+     */
+    void setCyclesPerFrame(int cyclesPerFrame) {
+        if (cyclesPerFrame < 1 || cyclesPerFrame > MAX_CYCLES_PER_FRAME) {
+            throw new IllegalArgumentException("Invalid cycles per frame " + cyclesPerFrame);
+        }
+
+        char delay = delayTimer();
+        char sound = soundTimer();
+
+        // restart counting from an exact frame boundary at the new rate
+        cycles = frame() * cyclesPerFrame;
+        cycles_per_frame = cyclesPerFrame;
+
+        setDelayTimer(delay);
+        setSoundTimer(sound);
+    }
+
+    /**
+     * Current value of the delay timer, counting down once per frame.
+     */
+    char delayTimer() {
+        return (char) Math.max(0, delay_timer_expiry - frame());
+    }
+
+    void setDelayTimer(char value) {
+        delay_timer_expiry = frame() + value;
+    }
+
+    /**
+     * Current value of the sound timer, counting down once per frame. A tone plays while it is above zero.
+     */
+    char soundTimer() {
+        return (char) Math.max(0, sound_timer_expiry - frame());
+    }
+
+    void setSoundTimer(char value) {
+        sound_timer_expiry = frame() + value;
+    }
+
+    /**
+     * Switches between interpreting one instruction at a time and executing cached basic blocks.
+     */
+    void setBlockCacheEnabled(boolean enabled) {
+        blockCache = enabled ? new BlockCache() : null;
+
+        if (!enabled) {
+            recompiler = null; // compiled code hangs off cached blocks
+        }
+    }
+
+    /**
+     * Sets the recompiler hot blocks are translated with, or null to only interpret. The recompiler can be shared
+     * between machines to share the generated code. Enables the block cache when needed.
+     */
+    void setRecompiler(BlockCompiler compiler) {
+        if (compiler != null && blockCache == null) {
+            setBlockCacheEnabled(true);
+        }
+
+        recompiler = compiler;
+    }
+
+    /**
+     * Seeds the random numbers CXNN draws, so a run can be repeated exactly.
+     */
+    void setSeed(long seed) {
+        random_state = seed;
+    }
+
+    /**
+     * Draws the next random byte, one SplitMix64 step, without allocating or synchronizing.
+     */
+    int nextRandom() {
+        long z = (random_state += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (int) ((z ^ (z >>> 31)) >>> 56); // the top bits are the best mixed
+    }
+
+    /**
+     * Whether the pixel at the given column and row is set in any bitplane.
+     */
+    boolean isPixelSet(int x, int y) {
+        return pixel(x, y) != 0;
+    }
+
+    /**
+     * Bitplanes the pixel at the given column and row is set in, bit p for plane p.
+     */
+    int pixel(int x, int y) {
+        int word = high_resolution ? y * 2 + (x >>> 6) : y;
+
+        // shift the pixel into the sign bit
+        return (int) ((graphics[word] << x) >>> 63) | (int) ((graphics[PLANE_WORDS + word] << x) >>> 63) << 1;
+    }
+
+    /**
+     * Returns the rows changed since the last call as a bit mask, bit y standing for row y, and clears it.
+     */
+    long takeDirtyRows() {
+        long rows = dirtyRows;
+        dirtyRows = 0;
+        return rows;
+    }
+
+    /**
+     * Stores a byte in memory. Every opcode writing to memory must go through here, so cached code stays valid.
+     */
+    void writeMemory(int address, char value) {
+        if (memory == shared_memory) {
+            memory = memory.clone(); // copy on the first store, the image stays untouched
+            shared_memory = null;
+        }
+
+        memory[address] = value;
+
+        if (blockCache != null) {
+            blockCache.invalidate(address);
+        }
+    }
+
+    /**
+     * Replaces memory with a zeroed one of the given size, e.g. to restore the state of a machine running a ROM for
+     * another platform. Code decoded from the previous memory is dropped.
+     */
+    void resizeMemory(int size) {
+        memory = new char[size];
+        shared_memory = null;
+
+        if (blockCache != null) {
+            blockCache.clear();
+        }
+    }
+
+    /**
+     * This method will be used to load the memory with a ROM file on disk.
+     * @throws IOException if the file can't be read or doesn't fit in memory
+     */
+    void load(Path file) throws IOException {
+        load(RomImage.read(file));
+    }
+
+    /**
+     * Loads a ROM at 0x200, on top of the fontset.
+     * @throws IllegalArgumentException if the ROM doesn't fit in memory
+     */
+    void load(byte[] rom) {
+        load(new RomImage(rom));
+    }
+
+    /**
+     * Replaces all of memory with a ROM image, sharing it until the first store.
+     */
+    void load(RomImage image) {
+        if (memory == image.memory) {
+            return; // untouched since it was loaded, so is everything decoded from it
+        }
+
+        memory = image.memory;
+        shared_memory = image.memory;
+
+        if (blockCache != null) {
+            blockCache.clear(); // drop code decoded from the previous ROM
         }
-    
     }
 
     /**
      * Clears the screen.
      */
-    private void op00E0() {
-        // TODO: graphics code to clear the screen goes here
+    void op00E0(Instruction instruction) {
+        int words = screenWords();
+
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((plane_mask & 1 << plane) != 0) {
+                Arrays.fill(graphics, plane * PLANE_WORDS, plane * PLANE_WORDS + words, 0L);
+            }
+        }
+        dirtyRows = allRows();
+
+        this.drawFlag = true;
     }
 
     /**
-     * 00EE: Returns from a subroutine.
+     * 00CN: Scrolls the selected planes down by N rows.
+     */
+    void op00CN(Instruction instruction) {
+        scrollDown(instruction.n);
+    }
+
+    /**
+     * 00DN: Scrolls the selected planes up by N rows. (XO-CHIP)
+     */
+    void op00DN(Instruction instruction) {
+        scrollDown(-instruction.n);
+    }
+
+    /**
+     * Moves whole rows of the selected planes down, or up for a negative distance, clearing the rows left behind.
+     */
+    private void scrollDown(int distance) {
+        int words = high_resolution ? 2 : 1;
+        int shift = Math.abs(distance) * words;
+        int length = screenWords();
+
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((plane_mask & 1 << plane) != 0) {
+                int start = plane * PLANE_WORDS;
+
+                if (distance > 0) {
+                    System.arraycopy(graphics, start, graphics, start + shift, length - shift);
+                    Arrays.fill(graphics, start, start + shift, 0L);
+                } else {
+                    System.arraycopy(graphics, start + shift, graphics, start, length - shift);
+                    Arrays.fill(graphics, start + length - shift, start + length, 0L);
+                }
+            }
+        }
+        dirtyRows = allRows();
+
+        this.drawFlag = true;
+    }
+
+    /**
+     * 00FB: Scrolls the selected planes right by 4 pixels.
+     */
+    void op00FB(Instruction instruction) {
+        int height = screenHeight();
+
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((plane_mask & 1 << plane) == 0) {
+                continue;
+            }
+
+            int start = plane * PLANE_WORDS;
+
+            // every row shifts as a whole, carrying the low pixels of the left word into the right one
+            for (int y = 0; y < height; y++) {
+                if (high_resolution) {
+                    int word = start + y * 2;
+                    long left = graphics[word];
+                    long right = graphics[word + 1];
+
+                    if ((left | right) != 0) {
+                        graphics[word] = left >>> 4;
+                        graphics[word + 1] = right >>> 4 | left << 60;
+                        dirtyRows |= 1L << y;
+                    }
+                } else if (graphics[start + y] != 0) {
+                    graphics[start + y] >>>= 4;
+                    dirtyRows |= 1L << y;
+                }
+            }
+        }
+
+        this.drawFlag = true;
+    }
+
+    /**
+     * 00FC: Scrolls the selected planes left by 4 pixels.
+     */
+    void op00FC(Instruction instruction) {
+        int height = screenHeight();
+
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((plane_mask & 1 << plane) == 0) {
+                continue;
+            }
+
+            int start = plane * PLANE_WORDS;
+
+            for (int y = 0; y < height; y++) {
+                if (high_resolution) {
+                    int word = start + y * 2;
+                    long left = graphics[word];
+                    long right = graphics[word + 1];
+
+                    if ((left | right) != 0) {
+                        graphics[word] = left << 4 | right >>> 60;
+                        graphics[word + 1] = right << 4;
+                        dirtyRows |= 1L << y;
+                    }
+                } else if (graphics[start + y] != 0) {
+                    graphics[start + y] <<= 4;
+                    dirtyRows |= 1L << y;
+                }
+            }
+        }
+
+        this.drawFlag = true;
+    }
+
+    /**
+     * 00FD: Exits the interpreter, which here means spinning in place until the next reset.
      */
-    private void op00EE() {
+    void op00FD(Instruction instruction) {
+        program_counter -= 2;
+        idle = IDLE_JUMP;
+    }
+
+    /**
+     * 00FE: Switches to low resolution, clearing the screen.
+     */
+    void op00FE(Instruction instruction) {
+        setHighResolution(false);
+    }
+
+    /**
+     * 00FF: Switches to high resolution, clearing the screen.
+     */
+    void op00FF(Instruction instruction) {
+        setHighResolution(true);
+    }
+
+    private void setHighResolution(boolean enabled) {
+        high_resolution = enabled;
+
+        Arrays.fill(graphics, 0L);
+        dirtyRows = allRows();
 
+        this.drawFlag = true;
+    }
+
+    /**
+     * 00EE: Returns from a subroutine.
+     */
+    void op00EE(Instruction instruction) {
+        stack_pointer--;
+        program_counter = stack[stack_pointer]; // pop return address off the stack
     }
 
     /***
      * // 1NNN: Jumps to address NNN.
      */
-    private void op1NNN() {
-        program_counter = (char)(current_instruction & 0x0FFF);
+    void op1NNN(Instruction instruction) {
+        int address = program_counter - 2;
+
+        program_counter = (char) instruction.nnn;
+
+        if (instruction.nnn == address) {
+            idle = IDLE_JUMP;
+        } else if (instruction.nnn == address - 4) {
+            // FX07, 3X00 in front of the jump polls the delay timer until it runs out
+            int read = (memory[address - 4] << 8) | memory[address - 3];
+            int compare = (memory[address - 2] << 8) | memory[address - 1];
+
+            if ((read & 0xF0FF) == 0xF007 && (compare & 0xF0FF) == 0x3000 && (read & 0x0F00) == (compare & 0x0F00)) {
+                idle = IDLE_DELAY;
+                idle_register = (read & 0x0F00) >>> 8;
+            }
+        }
     }
 
     /***
      * Calls subroutine at NNN.
      */
-    private void op2NNN() {
-        // put current pc on the stack
-        stack[stack_pointer] = (char) (program_counter + 1);
+    void op2NNN(Instruction instruction) {
+        // put current pc on the stack, it already points at the next instruction
+        stack[stack_pointer] = program_counter;
         stack_pointer++;
-        program_counter = (char) ((current_instruction & 0x0FFF));
+        program_counter = (char) instruction.nnn;
     }
 
     /***
@@ -309,79 +792,103 @@ public class Chip8 {
      * Skips the next instruction if VX equals NN.
      * (Usually the next instruction is a jump to skip a code block)
      */
-    private void op3XNN() {
-        char immediate = (char)(current_instruction & 0x00FF);
-        
-        if ((register[(current_instruction & 0x0F00) >>> 8]) == immediate)
-            program_counter++;
+    void op3XNN(Instruction instruction) {
+        if (register[instruction.x] == instruction.nn)
+            skip();
     }
 
-    private void op4XNN() {
-        
+    /**
+     * Skips the next instruction if VX doesn't equal NN.
+     */
+    void op4XNN(Instruction instruction) {
+        if (register[instruction.x] != instruction.nn)
+            skip();
+    }
+
+    /**
+     * Skips the next instruction if VX equals VY.
+     */
+    void op5XY0(Instruction instruction) {
+        if (register[instruction.x] == register[instruction.y])
+            skip();
+    }
+
+    /**
+     * Stores VX to VY in memory starting at address I, in descending order if X is larger. I doesn't change.
+     * (XO-CHIP)
+     */
+    void op5XY2(Instruction instruction) {
+        int step = instruction.x <= instruction.y ? 1 : -1;
+        int mask = memory.length - 1;
+
+        for (int i = 0; i <= Math.abs(instruction.y - instruction.x); i++) {
+            writeMemory((index + i) & mask, register[instruction.x + i * step]);
+        }
     }
 
-    private void op5XY0() {
-        
+    /**
+     * Loads VX to VY from memory starting at address I, in descending order if X is larger. I doesn't change.
+     * (XO-CHIP)
+     */
+    void op5XY3(Instruction instruction) {
+        int step = instruction.x <= instruction.y ? 1 : -1;
+        int mask = memory.length - 1;
+
+        for (int i = 0; i <= Math.abs(instruction.y - instruction.x); i++) {
+            register[instruction.x + i * step] = memory[(index + i) & mask];
+        }
     }
 
-    private void op6XNN() {
-        
+    /**
+     * Sets VX to NN.
+     */
+    void op6XNN(Instruction instruction) {
+        register[instruction.x] = (char) instruction.nn;
     }
 
-    private void op7XNN() {
-        
+    /**
+     * Adds NN to VX. (Carry flag is not changed)
+     */
+    void op7XNN(Instruction instruction) {
+        register[instruction.x] = (char) ((register[instruction.x] + instruction.nn) & 0x00FF);
     }
 
     /***
      * Sets VX to the value of VY.
      */
-    private void op8XY0() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-        char y = (char) ((current_instruction & 0x00F0) >>> 4);
-
-        register[x] = register[y];
+    void op8XY0(Instruction instruction) {
+        register[instruction.x] = register[instruction.y];
     }
 
     /***
      * Sets VX to VX or VY. (Bitwise OR operation)
      */
-    private void op8XY1() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-        char y = (char) ((current_instruction & 0x00F0) >>> 4);
-
-        register[x] = (char) (register[x] | register[y]);
+    void op8XY1(Instruction instruction) {
+        register[instruction.x] = (char) (register[instruction.x] | register[instruction.y]);
     }
 
     /***
      * Sets VX to VX and VY. (Bitwise AND operation)
      */
-    private void op8XY2() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-        char y = (char) ((current_instruction & 0x00F0) >>> 4);
-
-        register[x] = (char) (register[x] & register[y]);
+    void op8XY2(Instruction instruction) {
+        register[instruction.x] = (char) (register[instruction.x] & register[instruction.y]);
     }
 
     /**
      * Sets VX to VX xor VY. (Bitwise XOR operation)
      */
-    private void op8XY3() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-        char y = (char) ((current_instruction & 0x00F0) >>> 4);
-
-        register[x] = (char) (register[x] ^ register[y]);
-
+    void op8XY3(Instruction instruction) {
+        register[instruction.x] = (char) (register[instruction.x] ^ register[instruction.y]);
     }
 
     /**
      * Adds VY to VX.
      * VF is set to 1 when there's a carry, and to 0 when there isn't.
      */
-    private void op8XY4() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-        char y = (char) ((current_instruction & 0x00F0) >>> 4);
+    void op8XY4(Instruction instruction) {
+        char sum = (char) (register[instruction.x] + register[instruction.y]); // sum
 
-        char sum = (char) (register[x] + register[y]); // sum
+        register[instruction.x] = (char) (sum & 0x00FF); // Removes any overflow.
 
         // set carry register
         if ((sum & 0xFF00) != 0) {
@@ -389,102 +896,103 @@ public class Chip8 {
         } else {
             register[0xF] = 0x0;
         }
-
-        register[x] = (char) (sum & 0x00FF); // Removes any overflow.
     }
 
     /**
      *VY is subtracted from VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
      */
-    private void op8XY5() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-        char y = (char) ((current_instruction & 0x00F0) >>> 4);
+    void op8XY5(Instruction instruction) {
+        char difference = (char) (register[instruction.x] - register[instruction.y]); // Difference
 
-        char difference = (char) (register[x] - register[y]); // Difference
+        register[instruction.x] = (char) (difference & 0x00FF);
 
         // Set borrow register.
         if ((difference & 0xFF00) != 0) {
-            register[0xF] = 1;
-        } else {
             register[0xF] = 0;
+        } else {
+            register[0xF] = 1;
         }
     }
+
     /**
     * Shifts VY right by one and copies the result to VX. VF is set to the value of the least significant bit of VY
      * before the shift.
      */
+    void op8XY6(Instruction instruction) {
+        char flag = (char) (register[instruction.y] & 0x0001);
 
-    private void op8XY6() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-        char y = (char) ((current_instruction & 0x00F0) >>> 4);
-
-        register[0xF] = (char) (register[y] & 0x0001); // Set flag.
-
-        register[x] = (char) (register[y] >>> 1); // Right shift y set to x.
+        register[instruction.x] = (char) (register[instruction.y] >>> 1); // Right shift y set to x.
+        register[0xF] = flag; // Set flag.
     }
 
     /**
      * Sets VX to VY minus VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
      */
-    private void op8XY7() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-        char y = (char) ((current_instruction & 0x00F0) >>> 4);
+    void op8XY7(Instruction instruction) {
+        char difference = (char) (register[instruction.y] - register[instruction.x]);
 
-        register[x] = (char) (register[y] - register[x]);
+        register[instruction.x] = (char) (difference & 0x00FF);
 
-        // Implement borrow flag.
+        // Set borrow register.
+        if ((difference & 0xFF00) != 0) {
+            register[0xF] = 0;
+        } else {
+            register[0xF] = 1;
+        }
     }
 
     /**
      *Shifts VY left by one and copies the result to VX. VF is set to the value of the most significant bit of VY before
      *  the shift.
      */
-    private void op8XYE() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-        char y = (char) ((current_instruction & 0x00F0) >>> 4);
-
-        register[0xF] = (char) (register[y] & 0x0080); // Set flag.
+    void op8XYE(Instruction instruction) {
+        char flag = (char) ((register[instruction.y] & 0x0080) >>> 7);
 
-        register[x] = (char) (register[y] << 1); // Left shift by one.
+        register[instruction.x] = (char) ((register[instruction.y] << 1) & 0x00FF); // Left shift by one.
+        register[0xF] = flag; // Set flag.
     }
 
     /**
      *Skips the next instruction if VX doesn't equal VY.
      */
-    private void op9XY0() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-        char y = (char) ((current_instruction & 0x00F0) >>> 4);
+    void op9XY0(Instruction instruction) {
+        if (register[instruction.x] != register[instruction.y]) {
 
-        if (register[x] != register[y]) {
+            skip();
+        }
+    }
 
-            program_counter++;
+    /**
+     * Skips the next instruction, all four bytes of it if that is an XO-CHIP F000 NNNN.
+     */
+    private void skip() {
+        if (memory.length == XO_MEMORY_SIZE && memory[program_counter] == 0xF0
+                && memory[(program_counter + 1) & 0xFFFF] == 0x00) {
+            program_counter += 2;
         }
+
+        program_counter += 2;
     }
 
     /**
      *Sets I to the address NNN.
      */
-    private void opANNN() {
-        index = (char) (current_instruction & 0x0FFF);
+    void opANNN(Instruction instruction) {
+        index = (char) instruction.nnn;
     }
 
     /**
      * Jumps to the address NNN plus V0.
      */
-    private void opBNNN() {
-        program_counter = (char) (register[0x0] + (current_instruction & 0x0FFF));
+    void opBNNN(Instruction instruction) {
+        program_counter = (char) (register[0x0] + instruction.nnn);
     }
 
     /**
      *Sets VX to the result of a bitwise and operation on a random number (Typically: 0 to 255) and NN.
      */
-    private void opCXNN() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-        char immediate = (char) (current_instruction & 0x00FF);
-
-        Random random = new Random();
-
-        register[x] = (char) (random.nextInt(255) & immediate);
+    void opCXNN(Instruction instruction) {
+        register[instruction.x] = (char) (nextRandom() & instruction.nn);
     }
 
     /**
@@ -493,89 +1001,146 @@ public class Chip8 {
      * instruction. As described above, VF is set to 1 if any screen pixels are flipped from set to unset when the
      * sprite is drawn, and to 0 if that doesn’t happen
      */
-    private void opDXYN() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-        char y = (char) ((current_instruction & 0x00F0) >>> 4);
-        char immediate = (char) (current_instruction & 0x000F);
+    void opDXYN(Instruction instruction) {
+        int words = high_resolution ? 2 : 1;
+        int height = screenHeight();
+
+        // the starting position wraps around the screen, the sprite itself is clipped at the edges
+        int x = register[instruction.x] & (words * 64 - 1);
+        int y = register[instruction.y] & (height - 1);
+        int word = x >>> 6;
+        int shift = x & 63;
+
+        // DXY0 draws a 16x16 sprite, two bytes per row
+        boolean wide = instruction.n == 0;
+        int rows = wide ? 16 : instruction.n;
+        int mask = memory.length - 1;
+        int address = index;
+
+        long collisions = 0;
+
+        // each selected plane draws the next sprite in memory
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((plane_mask & 1 << plane) == 0) {
+                continue;
+            }
+
+            int start = plane * PLANE_WORDS + word;
+
+            for (int row = 0; row < rows && y + row < height; row++) {
+                // move the sprite row to column x as a whole, pixels shifted past the right edge are dropped
+                int bytes = wide ? row * 2 : row;
+                long sprite = wide
+                        ? (long) (memory[(address + bytes) & mask] << 8 | memory[(address + bytes + 1) & mask]) << 48
+                        : (long) memory[(address + bytes) & mask] << 56;
+                long left = sprite >>> shift;
+                long right = shift == 0 || word + 1 == words ? 0 : sprite << (64 - shift);
+                int at = start + (y + row) * words;
+
+                collisions |= graphics[at] & left;
+                graphics[at] ^= left;
+
+                if (right != 0) {
+                    collisions |= graphics[at + 1] & right;
+                    graphics[at + 1] ^= right;
+                }
 
-        // TODO: implement graphics code that draws pixels here
-        for (int row = 0; row < 8; row++) {
-            for (int column = 0; column < immediate; column++) {
-               graphics[(row * 64) + column] = (char) (memory[index + row] & (0x0F << (8 - row)));
+                if ((left | right) != 0) {
+                    dirtyRows |= 1L << (y + row);
+                }
             }
+
+            address += wide ? 32 : rows;
         }
 
-        this.drawFlag = true;
+        // Set register[F] to 1 if pixels are flipped from set to unset, 0 if not.
+        register[0xF] = (char) (collisions != 0 ? 1 : 0);
 
-        // TODO: Set register[F] to 1 if pixels are flipped from set to unset, 0 if not.
+        this.drawFlag = true;
     }
 
     /**
-     *Skips the next instruction if the key stored in VX isn't pressed.
+     *Skips the next instruction if the key stored in VX is pressed.
      */
-    private void opEX9E() {
-        // Come back to when UI.
+    void opEX9E(Instruction instruction) {
+        if (keypad[register[instruction.x] & 0x000F] != 0)
+            skip();
     }
 
     /**
      * Skips the next instruction if the key stored in VX isn't pressed.
      * (Usually the next instruction is a jump to skip a code block)
      */
-    private void opEXA1() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
+    void opEXA1(Instruction instruction) {
+        if (keypad[register[instruction.x] & 0x000F] == 0)
+            skip();
     }
 
     /**
      * Sets VX to the value of the delay timer.
      */
-    private void opFX07() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
+    void opFX07(Instruction instruction) {
+        register[instruction.x] = delayTimer();
     }
 
     /**
      * 	A key press is awaited, and then stored in VX.
      * 	(Blocking Operation. All instruction halted until next key event)
      */
-    private void opFX0A() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
+    void opFX0A(Instruction instruction) {
+        for (int key = 0; key < keypad.length; key++) {
+            if (keypad[key] != 0) {
+                register[instruction.x] = (char) key;
+                return;
+            }
+        }
+
+        // no key down, execute this instruction again until there is
+        program_counter -= 2;
+        idle = IDLE_KEY;
     }
 
     /**
      * Sets the delay timer to VX.
      */
-    private void opFX15() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-
-        delay_timer = register[x];
+    void opFX15(Instruction instruction) {
+        setDelayTimer(register[instruction.x]);
     }
 
     /**
      * Sets the sound timer to VX.
      */
-    private void opFX18() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-
-        sound_timer = register[x];
+    void opFX18(Instruction instruction) {
+        setSoundTimer(register[instruction.x]);
     }
 
     /**
      * Adds VX to I.
      */
-    private void opFX1E() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-        char sum = (char) ((register[x] + index) & 0x00FF);
-
-        index = (char) (sum & 0x00FF); // chop off first 8 bits
+    void opFX1E(Instruction instruction) {
+        index = (char) ((register[instruction.x] + index) & (memory.length - 1)); // keep I inside the address space
     }
 
     /**
      * 	Sets I to the location of the sprite for the character in VX.
      * 	Characters 0-F (in hexadecimal) are represented by a 4x5 font.
      */
-    private void opFX29() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
+    void opFX29(Instruction instruction) {
+        index = (char) (FONT_START + (register[instruction.x] & 0x000F) * 5);
+    }
+
+    /**
+     * Sets I to the location of the 8x10 sprite for the character in VX.
+     */
+    void opFX30(Instruction instruction) {
+        index = (char) (BIG_FONT_START + (register[instruction.x] & 0x000F) * 10);
+    }
 
-        // TODO: implement pointers to location of letters
+    /**
+     * Sets the pitch of the XO-CHIP audio pattern to VX.
+     */
+    void opFX3A(Instruction instruction) {
+        pitch = register[instruction.x];
     }
 
     /**
@@ -586,18 +1151,21 @@ public class Chip8 {
      * at location in I, the tens digit at location I+1, and the ones digit at
      * location I+2.)
      */
-    private void opFX33() {
-        // TODO: implement this monstrous beast
+    void opFX33(Instruction instruction) {
+        char value = register[instruction.x];
+        int mask = memory.length - 1; // I + 2 wraps around the end of memory
+
+        writeMemory(index & mask, (char) (value / 100)); // hundreds
+        writeMemory((index + 1) & mask, (char) ((value / 10) % 10)); // tens
+        writeMemory((index + 2) & mask, (char) (value % 10)); // ones
     }
 
     /**
      *Stores V0 to VX (including VX) in memory starting at address I. I is increased by 1 for each value written.
      */
-    private void opFX55() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-
-        for (int i = 0; i <= x; i++) {
-            memory[index] = register[i]; // copy register to memory location
+    void opFX55(Instruction instruction) {
+        for (int i = 0; i <= instruction.x; i++) {
+            writeMemory(index & (memory.length - 1), register[i]); // copy register to memory location
             index++; // increment index pointer
         }
     }
@@ -606,13 +1174,49 @@ public class Chip8 {
      * Fills V0 to VX (including VX) with values from memory starting at
      * address I. I is increased by 1 for each value written.
      */
-    private void opFX65() {
-        char x = (char) ((current_instruction & 0x0F00) >>> 8);
-
-        for (int i = 0; i <= x; i++) {
-            register[i] = memory[index]; // copy value at memory location to register
+    void opFX65(Instruction instruction) {
+        for (int i = 0; i <= instruction.x; i++) {
+            register[i] = memory[index & (memory.length - 1)]; // copy value at memory location to register
             index++;
         }
     }
 
+    /**
+     * Stores V0 to VX in the flag registers.
+     */
+    void opFX75(Instruction instruction) {
+        System.arraycopy(register, 0, user_flags, 0, instruction.x + 1);
+    }
+
+    /**
+     * Fills V0 to VX from the flag registers.
+     */
+    void opFX85(Instruction instruction) {
+        System.arraycopy(user_flags, 0, register, 0, instruction.x + 1);
+    }
+
+    /**
+     * F000 NNNN: Sets I to the 16 bit address following the instruction, which is skipped over. (XO-CHIP)
+     */
+    void opF000(Instruction instruction) {
+        index = (char) (memory[program_counter] << 8 | memory[(program_counter + 1) & 0xFFFF]);
+        program_counter += 2;
+    }
+
+    /**
+     * FN01: Selects the bitplanes drawing, clearing and scrolling work on, bit p of N for plane p. (XO-CHIP)
+     */
+    void opFN01(Instruction instruction) {
+        plane_mask = instruction.x & 0x3;
+    }
+
+    /**
+     * F002: Loads the 16 byte audio pattern from memory starting at address I. (XO-CHIP)
+     */
+    void opF002(Instruction instruction) {
+        for (int i = 0; i < audio_pattern.length; i++) {
+            audio_pattern[i] = memory[(index + i) & (memory.length - 1)];
+        }
+    }
+
 }
@@ -0,0 +1,16 @@
+package com.blanelegant.chip8008;
+
+/**
+ * A basic block, or a prefix of one, that {@link BlockCompiler} translated into JVM bytecode.
+ * Implementations are stateless and may be shared between machines running the same code.
+ */
+interface CompiledBlock {
+
+    /**
+     * Runs the translated instructions against the given machine, looping inside the block while it jumps back to
+     * its own start and the budget allows another full pass.
+     * @param budget instructions the caller allows to be executed, at least one full pass of the block
+     * @return the number of instructions executed
+     */
+    int run(Chip8 chip, int budget);
+}
@@ -0,0 +1,318 @@
+package com.blanelegant.chip8008;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Breakpoints on addresses, optionally only while a register holds a given value, and watchpoints on reads and
+ * writes of memory ranges by instructions such as FX55, FX65, FX33 and DXYN. A hit stops the machine with a
+ * {@link BreakpointException} just before the instruction that hit runs; resumed from there, that instruction runs
+ * on without hitting again.
+ *
+ * Like the {@link Profiler}, the debugger swaps the machine's dispatch table for one whose instructions check
+ * themselves before handing over to the table they replaced, so checks cost nothing unless it is attached, and it
+ * only needs attaching while something is armed. While attached, the machine interprets one instruction at a time;
+ * the block cache and the recompiler are bypassed. Iterations of idle loops the machine skips rather than runs don't
+ * hit, the first one run after them does.
+ *
+ * Breakpoints and watchpoints are only to be changed while the debugger is not attached, or from the thread running
+ * the machine.
+ */
+final class Debugger implements Instruction.Handler {
+
+    // kinds of watchpoint
+    static final int READ = 0x1;
+    static final int WRITE = 0x2;
+
+    /**
+     * Stops at an address, whenever it is reached or only while a register holds a value.
+     */
+    private static final class Breakpoint {
+        final int address;
+        final int register; // -1 for none
+        final int value;
+
+        Breakpoint(int address, int register, int value) {
+            this.address = address;
+            this.register = register;
+            this.value = value;
+        }
+    }
+
+    // memory accessed by an instruction from I on, other than fetching it
+    private static final byte NO_ACCESS = 0;
+    private static final byte LOAD_REGISTERS = 1; // FX65
+    private static final byte STORE_REGISTERS = 2; // FX55
+    private static final byte STORE_DIGITS = 3; // FX33
+    private static final byte DRAW = 4; // DXYN
+    private static final byte LOAD_RANGE = 5; // 5XY3
+    private static final byte STORE_RANGE = 6; // 5XY2
+    private static final byte LOAD_AUDIO = 7; // F002
+
+    private static final byte[] ACCESS = new byte[0x10000];
+
+    static {
+        for (int opcode = 0; opcode < ACCESS.length; opcode++) {
+            switch (InstructionTable.TABLE[opcode].name) {
+                case "FX65":
+                    ACCESS[opcode] = LOAD_REGISTERS;
+                    break;
+                case "FX55":
+                    ACCESS[opcode] = STORE_REGISTERS;
+                    break;
+                case "FX33":
+                    ACCESS[opcode] = STORE_DIGITS;
+                    break;
+                case "DXYN":
+                    ACCESS[opcode] = DRAW;
+                    break;
+                case "5XY3":
+                    ACCESS[opcode] = LOAD_RANGE;
+                    break;
+                case "5XY2":
+                    ACCESS[opcode] = STORE_RANGE;
+                    break;
+                case "F002":
+                    ACCESS[opcode] = LOAD_AUDIO;
+                    break;
+                default:
+                    ACCESS[opcode] = NO_ACCESS;
+            }
+        }
+    }
+
+    private final Instruction[] table = new Instruction[0x10000];
+    private Instruction[] inner; // the table this debugger's replaced, executing the instructions
+
+    private final List<Breakpoint> breakpoints = new ArrayList<>();
+    private final long[] breakAddresses = new long[Chip8.XO_MEMORY_SIZE / 64]; // bit n set for a breakpoint at n
+    private final byte[] watched = new byte[Chip8.XO_MEMORY_SIZE]; // READ and WRITE bits of every address
+
+    private boolean armed;
+    private long resumeCycle = -1; // of the instruction last stopped before, which runs on when resumed
+    private char previous; // opcode run before the current one, put back when stopping
+
+    Debugger() {
+        for (int opcode = 0; opcode < table.length; opcode++) {
+            Instruction instruction = InstructionTable.TABLE[opcode];
+            table[opcode] = new Instruction(instruction.opcode, instruction.name, this, instruction.flags);
+        }
+    }
+
+    /**
+     * Stops whenever the instruction at the address is about to run.
+     */
+    void addBreakpoint(int address) {
+        addBreakpoint(address, -1, 0);
+    }
+
+    /**
+     * Stops when the instruction at the address is about to run while register VX holds the value.
+     * @param register X, or -1 to stop whatever the registers hold
+     */
+    void addBreakpoint(int address, int register, int value) {
+        if (address < 0 || address >= Chip8.XO_MEMORY_SIZE || register < -1 || register > 0xF) {
+            throw new IllegalArgumentException("Invalid breakpoint");
+        }
+
+        breakpoints.add(new Breakpoint(address, register, value & 0xFF));
+        breakAddresses[address >>> 6] |= 1L << address;
+        armed = true;
+    }
+
+    /**
+     * Adds a breakpoint given as ADDRESS or ADDRESS:VX=VALUE in hex, such as 2A4:V3=10.
+     */
+    void addBreakpoint(String spec) {
+        int colon = spec.indexOf(':');
+
+        if (colon < 0) {
+            addBreakpoint(Integer.parseInt(spec, 16));
+            return;
+        }
+
+        String condition = spec.substring(colon + 1);
+        int register = condition.length() < 4 ? -1 : Character.digit(condition.charAt(1), 16);
+
+        if (register < 0 || Character.toUpperCase(condition.charAt(0)) != 'V' || condition.charAt(2) != '=') {
+            throw new IllegalArgumentException("Invalid breakpoint " + spec);
+        }
+
+        addBreakpoint(Integer.parseInt(spec.substring(0, colon), 16), register,
+                Integer.parseInt(condition.substring(3), 16));
+    }
+
+    /**
+     * Stops when an instruction is about to read or write any of the addresses from one to the other, inclusive.
+     * @param access {@link #READ}, {@link #WRITE} or both
+     */
+    void addWatchpoint(int from, int to, int access) {
+        if (from < 0 || to < from || to >= Chip8.XO_MEMORY_SIZE || (access & ~(READ | WRITE)) != 0 || access == 0) {
+            throw new IllegalArgumentException("Invalid watchpoint");
+        }
+
+        for (int address = from; address <= to; address++) {
+            watched[address] |= access;
+        }
+        armed = true;
+    }
+
+    /**
+     * Adds a watchpoint given as FROM[-TO][:r|w|rw] in hex, watching both reads and writes by default, such as
+     * 300-30F:w.
+     */
+    void addWatchpoint(String spec) {
+        int colon = spec.indexOf(':');
+        String range = colon < 0 ? spec : spec.substring(0, colon);
+        String kind = colon < 0 ? "rw" : spec.substring(colon + 1);
+        int dash = range.indexOf('-');
+
+        int from = Integer.parseInt(dash < 0 ? range : range.substring(0, dash), 16);
+        int to = dash < 0 ? from : Integer.parseInt(range.substring(dash + 1), 16);
+
+        switch (kind) {
+            case "r":
+                addWatchpoint(from, to, READ);
+                break;
+            case "w":
+                addWatchpoint(from, to, WRITE);
+                break;
+            case "rw":
+                addWatchpoint(from, to, READ | WRITE);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid watchpoint " + spec);
+        }
+    }
+
+    /**
+     * Removes every breakpoint and watchpoint.
+     */
+    void clear() {
+        breakpoints.clear();
+        Arrays.fill(breakAddresses, 0);
+        Arrays.fill(watched, (byte) 0);
+        armed = false;
+    }
+
+    /**
+     * Whether any breakpoint or watchpoint is set, and so whether attaching is of any use.
+     */
+    boolean isArmed() {
+        return armed;
+    }
+
+    /**
+     * Starts checking the machine's instructions. Only to be called from the thread running it.
+     */
+    void attach(Chip8 chip) {
+        inner = chip.dispatch;
+        chip.dispatch = table;
+        previous = chip.current_instruction;
+    }
+
+    /**
+     * Stops checking the machine's instructions, putting back the dispatch table found when attaching.
+     */
+    void detach(Chip8 chip) {
+        chip.dispatch = inner;
+    }
+
+    /**
+     * Checks and executes an instruction dispatched through the debugger's table.
+     */
+    @Override
+    public void execute(Chip8 chip, Instruction instruction) throws UnknownOpcodeException {
+        int address = (chip.program_counter - 2) & 0xFFFF; // the program counter has already moved on
+        long cycle = chip.cycles - 1;
+
+        if (cycle != resumeCycle) {
+            if ((breakAddresses[address >>> 6] & 1L << address) != 0) {
+                checkBreakpoints(chip, address, cycle);
+            }
+            if (ACCESS[instruction.opcode] != NO_ACCESS) {
+                checkAccess(chip, instruction, address, cycle);
+            }
+        }
+
+        previous = instruction.opcode;
+
+        Instruction target = inner[instruction.opcode];
+        target.handler.execute(chip, target);
+    }
+
+    private void checkBreakpoints(Chip8 chip, int address, long cycle) {
+        for (Breakpoint breakpoint : breakpoints) {
+            if (breakpoint.address != address) {
+                continue;
+            }
+
+            if (breakpoint.register < 0) {
+                stop(chip, address, cycle, String.format("Breakpoint at %03X", address));
+            } else if (chip.register[breakpoint.register] == breakpoint.value) {
+                stop(chip, address, cycle, String.format("Breakpoint at %03X on V%X = %02X", address,
+                        breakpoint.register, breakpoint.value));
+            }
+        }
+    }
+
+    private void checkAccess(Chip8 chip, Instruction instruction, int address, long cycle) {
+        int length;
+        int access;
+
+        switch (ACCESS[instruction.opcode]) {
+            case LOAD_REGISTERS:
+                length = instruction.x + 1;
+                access = READ;
+                break;
+            case STORE_REGISTERS:
+                length = instruction.x + 1;
+                access = WRITE;
+                break;
+            case STORE_DIGITS:
+                length = 3;
+                access = WRITE;
+                break;
+            case DRAW:
+                // each selected plane draws the next sprite, 16x16 ones two bytes per row
+                length = (instruction.n == 0 ? 32 : instruction.n) * Integer.bitCount(chip.plane_mask & 0x3);
+                access = READ;
+                break;
+            case LOAD_RANGE:
+                length = Math.abs(instruction.y - instruction.x) + 1;
+                access = READ;
+                break;
+            case STORE_RANGE:
+                length = Math.abs(instruction.y - instruction.x) + 1;
+                access = WRITE;
+                break;
+            default: // LOAD_AUDIO
+                length = 16;
+                access = READ;
+        }
+
+        int mask = chip.memory.length - 1;
+
+        for (int i = 0; i < length; i++) {
+            int watchedAddress = (chip.index + i) & mask;
+
+            if ((watched[watchedAddress] & access) != 0) {
+                stop(chip, address, cycle, String.format("%s watchpoint on %03X hit by %04X at %03X",
+                        access == READ ? "Read" : "Write", watchedAddress, (int) instruction.opcode, address));
+            }
+        }
+    }
+
+    /**
+     * Puts the machine back to just before the instruction at the address, as fetching it left it, and stops it.
+     */
+    private void stop(Chip8 chip, int address, long cycle, String message) {
+        chip.current_instruction = previous;
+        chip.program_counter = (char) address;
+        chip.cycles = cycle;
+        resumeCycle = cycle;
+
+        throw new BreakpointException(address, message);
+    }
+}
@@ -0,0 +1,503 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link Chip8} on its own thread, frame by frame through a {@link MainTimer}, which publishes finished frames
+ * through a {@link FrameExchange}. The machine is only ever touched from the emulation thread; other threads control
+ * it through atomic state. Every frame is recorded into a {@link RewindBuffer}, so play can be stepped back, and the
+ * machine can be saved to and loaded from files as a {@link SaveState}.
+ *
+ * While recording a {@link Movie}, every ROM is started from a fresh random seed, and the keypad is recorded
+ * whenever it changes together with a screen hash every second, for the {@link MoviePlayer} to check replays against.
+ *
+ * Given a {@link StateView}, the machine's state is published into it at the end of every frame for observers to
+ * read while it runs.
+ */
+final class Emulator implements Runnable {
+
+    // rewind history: three minutes at 60 fps in at most 4 MB, a keyframe every two seconds
+    static final int REWIND_FRAMES = 3 * 60 * 60;
+    static final int REWIND_BYTES = 4 << 20;
+    static final int REWIND_KEYFRAME_INTERVAL = 120;
+
+    // frames between the screen hashes recorded into movies
+    static final int MOVIE_CHECKPOINT_INTERVAL = 60;
+
+    enum State { PAUSED, RUNNING, STOPPED }
+
+    /**
+     * A ROM waiting to be loaded by the emulation thread.
+     */
+    private static final class PendingRom {
+        final Path path;
+        final int cyclesPerFrame;
+
+        PendingRom(Path path, int cyclesPerFrame) {
+            this.path = path;
+            this.cyclesPerFrame = cyclesPerFrame;
+        }
+    }
+
+    private final Chip8 chip;
+    private final FrameExchange frames;
+    private final MainTimer timer;
+    private final RewindBuffer rewind = new RewindBuffer(REWIND_FRAMES, REWIND_BYTES, REWIND_KEYFRAME_INTERVAL);
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.PAUSED);
+    private final AtomicReference<PendingRom> pendingRom = new AtomicReference<>();
+    private final AtomicInteger keys = new AtomicInteger(); // bit n set while key n is held down
+    private final AtomicInteger pendingRewind = new AtomicInteger(); // frames to step back
+    private final AtomicReference<Boolean> pendingProfiling = new AtomicReference<>();
+    private final AtomicReference<PendingFile> pendingTrace = new AtomicReference<>();
+    private final AtomicReference<PendingFile> pendingMovie = new AtomicReference<>();
+    private final AtomicReference<PendingDebugger> pendingDebugger = new AtomicReference<>();
+    private final AtomicReference<Path> pendingSave = new AtomicReference<>();
+    private final AtomicReference<Path> pendingLoad = new AtomicReference<>();
+    private final AtomicReference<String> error = new AtomicReference<>(); // last error not yet taken
+
+    // the ROM running, owned by the emulation thread
+    private RomImage rom;
+    private int romCyclesPerFrame;
+
+    // instrumentation attached to the machine, owned by the emulation thread
+    private Profiler profiler;
+    private TraceRecorder tracer;
+    private Debugger debugger;
+    private StateView stateView;
+
+    // movie being recorded, into movieFile, with the next screen hash due at the end of frame nextCheckpoint
+    private Movie movie;
+    private Path movieFile;
+    private long nextCheckpoint;
+
+    private volatile Thread thread;
+
+    /**
+     * A trace or movie to start recording, or with a null file, to stop recording.
+     */
+    private static final class PendingFile {
+        final Path file;
+
+        PendingFile(Path file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Breakpoints to switch to, or with a null debugger, to drop.
+     */
+    private static final class PendingDebugger {
+        final Debugger debugger;
+
+        PendingDebugger(Debugger debugger) {
+            this.debugger = debugger;
+        }
+    }
+
+    Emulator(Chip8 chip, FrameExchange frames) {
+        this.chip = chip;
+        this.frames = frames;
+
+        timer = new MainTimer(chip, frames, this::endFrame);
+    }
+
+    /**
+     * Starts the emulation thread, paused.
+     */
+    void start() {
+        thread = new Thread(this, "chip8-emulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Publishes the machine's state into the view at the end of every frame from now on. To be called before
+     * {@link #start()}.
+     */
+    void setStateView(StateView view) {
+        stateView = view;
+    }
+
+    /**
+     * Stops the emulation thread for good.
+     */
+    void stop() {
+        state.set(State.STOPPED);
+        LockSupport.unpark(thread);
+    }
+
+    void setRunning(boolean running) {
+        if (running) {
+            state.compareAndSet(State.PAUSED, State.RUNNING);
+        } else {
+            state.compareAndSet(State.RUNNING, State.PAUSED);
+        }
+
+        LockSupport.unpark(thread);
+    }
+
+    boolean isRunning() {
+        return state.get() == State.RUNNING;
+    }
+
+    /**
+     * Switches between paced 60 Hz emulation and running uncapped, presenting only every Nth frame.
+     */
+    void setTurbo(boolean turbo, int frameSkip) {
+        timer.setTurbo(turbo, frameSkip);
+    }
+
+    boolean isTurbo() {
+        return timer.isTurbo();
+    }
+
+    /**
+     * Presses or releases a key. The machine sees the change at the start of its next frame; an emulation thread
+     * parked on an idle machine is woken up for it.
+     */
+    void setKey(int key, boolean pressed) {
+        int bit = 1 << key;
+        keys.getAndUpdate(mask -> pressed ? mask | bit : mask & ~bit);
+
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Resets the machine and loads a ROM into it, on the emulation thread before its next frame.
+     */
+    void load(Path rom) {
+        load(rom, Chip8.DEFAULT_CYCLES_PER_FRAME);
+    }
+
+    /**
+     * Like {@link #load(Path)}, running the ROM at the given number of instructions per frame.
+     */
+    void load(Path rom, int cyclesPerFrame) {
+        pendingRom.set(new PendingRom(rom, cyclesPerFrame));
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Steps the machine back the given number of frames, as far as the recorded history goes, on the emulation
+     * thread before its next frame.
+     */
+    void rewind(int frames) {
+        pendingRewind.addAndGet(frames);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Switches the execution profiler on or off, on the emulation thread before its next frame. While on, the
+     * profiler is registered as an MBean and reports every frame to JFR.
+     */
+    void setProfiling(boolean profiling) {
+        pendingProfiling.set(profiling);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Starts recording every executed instruction to a trace file, or stops with null, on the emulation thread
+     * before its next frame. Starting a new trace closes the previous one.
+     */
+    void setTracing(Path file) {
+        pendingTrace.set(new PendingFile(file));
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Starts recording an input movie, restarting the ROM running if any, or else from the next ROM loaded on. With
+     * null, stops and writes out the movie. Takes effect on the emulation thread before its next frame.
+     */
+    void setMovieRecording(Path file) {
+        pendingMovie.set(new PendingFile(file));
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Switches to the breakpoints and watchpoints of the debugger, or drops them all with null, on the emulation
+     * thread before its next frame. The debugger is not to be changed afterwards. Hitting one pauses the emulator,
+     * printing where it stopped but reporting no error; resuming runs on from there.
+     */
+    void setDebugger(Debugger debugger) {
+        pendingDebugger.set(new PendingDebugger(debugger));
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Saves the machine's state to a file, on the emulation thread before its next frame.
+     */
+    void saveState(Path file) {
+        pendingSave.set(file);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Restores the machine from a file written by {@link #saveState(Path)}, on the emulation thread before its next
+     * frame. The rewind history starts over from the restored state, and a movie being recorded is ended there, as
+     * movies replay from reset.
+     */
+    void loadState(Path file) {
+        pendingLoad.set(file);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Takes the last error the emulation thread ran into, such as a ROM failing to load, or null if there was none
+     * since the last call.
+     */
+    String takeError() {
+        return error.getAndSet(null);
+    }
+
+    @Override
+    public void run() {
+        while (state.get() != State.STOPPED) {
+            PendingRom pending = pendingRom.getAndSet(null);
+
+            if (pending != null) {
+                try {
+                    rom = RomImage.read(pending.path);
+                    romCyclesPerFrame = pending.cyclesPerFrame;
+                    restart();
+                } catch (IOException e) {
+                    report("Cannot load ROM: " + e.getMessage());
+                }
+            }
+
+            Boolean profiling = pendingProfiling.getAndSet(null);
+
+            if (profiling != null) {
+                updateProfiler(profiling);
+            }
+
+            PendingFile trace = pendingTrace.getAndSet(null);
+
+            if (trace != null) {
+                updateTracer(trace.file);
+            }
+
+            PendingFile recording = pendingMovie.getAndSet(null);
+
+            if (recording != null) {
+                finishMovie();
+                movieFile = recording.file;
+
+                if (movieFile != null && rom != null) {
+                    restart(); // a movie has to start from reset
+                }
+            }
+
+            PendingDebugger breakpoints = pendingDebugger.getAndSet(null);
+
+            if (breakpoints != null) {
+                debugger = breakpoints.debugger;
+                instrument();
+            }
+
+            Path save = pendingSave.getAndSet(null);
+
+            if (save != null) {
+                try {
+                    SaveState.write(chip, save);
+                } catch (IOException e) {
+                    report("Cannot save state: " + e.getMessage());
+                }
+            }
+
+            Path load = pendingLoad.getAndSet(null);
+
+            if (load != null) {
+                restoreState(load);
+            }
+
+            int back = pendingRewind.getAndSet(0);
+
+            if (back > 0 && rewind.rewind(chip, back) > 0) {
+                chip.drawFlag = false;
+                frames.publish(chip.graphics, chip.screenWidth(), chip.screenHeight(), chip.takeDirtyRows());
+                publishState();
+
+                if (movie != null) {
+                    movie.truncate(chip.cycles); // what was undone never happened
+                    nextCheckpoint = chip.frame();
+                }
+            }
+
+            if (state.get() != State.RUNNING) {
+                LockSupport.park(this); // until resumed, stopped or given a ROM
+                timer.resync();
+                continue;
+            }
+
+            // Store key press state (Press and Release)
+            int mask = keys.get();
+            chip.setKeys(mask);
+
+            if (movie != null) {
+                movie.addKeys(chip.cycles, mask);
+            }
+
+            try {
+                timer.runFrame();
+            } catch (BreakpointException e) {
+                System.out.println(e.getMessage()); // stopped on purpose, no error to report
+                state.compareAndSet(State.RUNNING, State.PAUSED);
+            } catch (UnknownOpcodeException e) {
+                report(e.getMessage());
+                state.compareAndSet(State.RUNNING, State.PAUSED);
+            }
+        }
+
+        updateTracer(null); // complete the trace file
+        finishMovie();
+    }
+
+    private void report(String message) {
+        System.err.println(message);
+        error.set(message);
+    }
+
+    /**
+     * Records a frame the timer ran, idle frames it caught up on included, into the rewind history, the state view
+     * and the movie being recorded.
+     */
+    private void endFrame() {
+        rewind.record(chip);
+        publishState();
+
+        if (movie != null && chip.frame() >= nextCheckpoint) {
+            movie.addCheckpoint(chip.cycles, chip.screenHash());
+            nextCheckpoint = chip.frame() + MOVIE_CHECKPOINT_INTERVAL;
+        }
+    }
+
+    /**
+     * Resets the machine and loads the ROM again from a fresh seed, starting a new movie when recording one.
+     */
+    private void restart() {
+        long seed = System.nanoTime();
+
+        chip.reset(rom);
+        chip.setCyclesPerFrame(romCyclesPerFrame);
+        chip.setSeed(seed);
+        frames.publish(chip.graphics, chip.screenWidth(), chip.screenHeight(), chip.takeDirtyRows());
+
+        rewind.clear();
+        rewind.record(chip);
+        publishState();
+
+        if (profiler != null) {
+            profiler.reset(); // addresses of the previous ROM mean nothing now
+        }
+
+        if (movieFile != null) {
+            movie = new Movie(rom.rom(), romCyclesPerFrame, seed);
+            nextCheckpoint = MOVIE_CHECKPOINT_INTERVAL;
+        }
+    }
+
+    /**
+     * Restores the machine from a save state file, starting the rewind history over from it.
+     */
+    private void restoreState(Path file) {
+        try {
+            SaveState.read(chip, file);
+        } catch (IOException e) {
+            report("Cannot load state: " + e.getMessage());
+            return;
+        }
+
+        finishMovie();
+        movieFile = null;
+
+        rewind.clear();
+        rewind.record(chip);
+        chip.drawFlag = false;
+        frames.publish(chip.graphics, chip.screenWidth(), chip.screenHeight(), chip.takeDirtyRows());
+        publishState();
+    }
+
+    private void publishState() {
+        if (stateView != null) {
+            stateView.publish(chip);
+        }
+    }
+
+    /**
+     * Writes out the movie being recorded, if any, ending it with the screen as it is now.
+     */
+    private void finishMovie() {
+        if (movie == null) {
+            return;
+        }
+
+        if (movie.checkpoints == 0 || movie.checkpointCycles[movie.checkpoints - 1] < chip.cycles) {
+            movie.addCheckpoint(chip.cycles, chip.screenHash());
+        }
+
+        try {
+            movie.write(movieFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        movie = null;
+    }
+
+    private void updateProfiler(boolean profiling) {
+        if (profiling && profiler == null) {
+            profiler = new Profiler();
+            profiler.register();
+        } else if (!profiling && profiler != null) {
+            profiler.unregister();
+            profiler = null;
+        }
+
+        timer.setProfiler(profiler);
+        instrument();
+    }
+
+    private void updateTracer(Path file) {
+        if (tracer != null) {
+            try {
+                tracer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            tracer = null;
+        }
+
+        if (file != null) {
+            try {
+                tracer = new TraceRecorder(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        instrument();
+    }
+
+    /**
+     * Stacks the active instrumentation onto the machine's plain dispatch table, the debugger outermost so that
+     * nothing else sees an instruction it stops before, then the profiler. An unarmed debugger stays off the machine.
+     */
+    private void instrument() {
+        chip.dispatch = InstructionTable.TABLE;
+
+        if (tracer != null) {
+            tracer.attach(chip);
+        }
+        if (profiler != null) {
+            profiler.attach(chip);
+        }
+        if (debugger != null && debugger.isArmed()) {
+            debugger.attach(chip);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.blanelegant.chip8008;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Programmatic environment around a {@link Chip8} for reinforcement learning and search agents, in the style of a
+ * Gym environment and without any UI: {@link #reset} starts a ROM from a seed, {@link #step} holds down a set of
+ * keys for a number of frames and returns the screen, and {@link #cloneState}/{@link #restoreState} snapshot the
+ * machine to branch from.
+ *
+ * Observations are the screen as {@link Chip8#graphics} holds it: in low resolution the first 32 longs, one per row,
+ * the leftmost pixel in the most significant bit, in SUPER-CHIP high resolution the first 128, two per row, and an
+ * XO-CHIP second bitplane laid out the same way from {@link Chip8#PLANE_WORDS} on. The array returned is owned by the
+ * environment and overwritten by the next step. Rewards come from a {@link Reward}
+ * hook looking at a set of memory addresses before and after every step, typically where the ROM keeps its score.
+ *
+ * Stepping runs through the block cache and the recompiler and allocates nothing. An environment is not thread safe;
+ * {@link EnvironmentBatch} steps many of them at once across a thread pool.
+ */
+public final class Environment {
+
+    /**
+     * Computes the reward of a step from the watched memory addresses.
+     */
+    @FunctionalInterface
+    public interface Reward {
+        /**
+         * @param before values at the watched addresses before the step, in the order they were given
+         * @param after values at the same addresses after the step
+         */
+        double reward(int[] before, int[] after);
+    }
+
+    /**
+     * Snapshot of an environment, taken by {@link #cloneState} and put back by {@link #restoreState}. Holds the
+     * machine as a {@link SaveState} snapshot in an array of its own, so the two layouts can't drift apart, and
+     * restoring one only writes back the memory that differs.
+     */
+    public static final class State {
+        private ByteBuffer snapshot = ByteBuffer.allocate(0); // sized on the first save
+        private boolean done;
+
+        private void save(Chip8 chip) {
+            if (snapshot.capacity() != SaveState.size(chip)) {
+                snapshot = ByteBuffer.allocate(SaveState.size(chip)); // first save, or a ROM for another platform
+            }
+
+            SaveState.save(chip, snapshot, 0);
+        }
+
+        private void restore(Chip8 chip) {
+            SaveState.restore(chip, snapshot, 0);
+        }
+    }
+
+    private final Chip8 chip = new Chip8();
+    private final int cyclesPerFrame;
+    private final long[] observation = new long[Chip8.PLANES * Chip8.PLANE_WORDS];
+
+    // the ROM last reset to, kept to share its image between resets
+    private byte[] rom;
+    private RomImage image;
+
+    private int[] addresses = new int[0];
+    private int[] before = new int[0];
+    private int[] after = new int[0];
+    private Reward reward;
+
+    private double lastReward;
+    private boolean done;
+    private Exception failure;
+
+    /**
+     * Creates an environment sharing the given recompiler, or interpreting through the block cache with null.
+     */
+    Environment(int cyclesPerFrame, BlockCompiler recompiler) {
+        this.cyclesPerFrame = cyclesPerFrame;
+
+        chip.initialize();
+        if (recompiler != null) {
+            chip.setRecompiler(recompiler);
+        } else {
+            chip.setBlockCacheEnabled(true);
+        }
+    }
+
+    public Environment(int cyclesPerFrame) {
+        this(cyclesPerFrame, new BlockCompiler());
+    }
+
+    public Environment() {
+        this(Chip8.DEFAULT_CYCLES_PER_FRAME);
+    }
+
+    /**
+     * Sets the reward hook and the memory addresses it looks at. Without a hook every step is worth nothing.
+     */
+    public void setReward(int[] addresses, Reward reward) {
+        this.addresses = addresses.clone();
+        this.before = new int[addresses.length];
+        this.after = new int[addresses.length];
+        this.reward = reward;
+    }
+
+    /**
+     * Resets the machine and starts the ROM with the given random seed. Resetting to the same ROM again keeps the code
+     * compiled for it, as long as the ROM never stored into its memory.
+     * @return the first observation
+     * @throws IllegalArgumentException if the ROM doesn't fit in memory
+     */
+    public long[] reset(byte[] rom, long seed) {
+        if (!Arrays.equals(rom, this.rom)) {
+            image = new RomImage(rom);
+            this.rom = rom.clone();
+        }
+
+        return reset(image, seed);
+    }
+
+    /**
+     * Like {@link #reset(byte[], long)}, with a ROM image shared between environments.
+     */
+    long[] reset(RomImage image, long seed) {
+        chip.reset(image);
+        chip.setCyclesPerFrame(cyclesPerFrame);
+        chip.setSeed(seed);
+
+        lastReward = 0;
+        done = false;
+        failure = null;
+
+        return observe();
+    }
+
+    /**
+     * Runs the given number of frames with the keys in the mask held down, bit n for key n.
+     * @return the observation after the step, the same array every time
+     */
+    public long[] step(int keyMask, int frames) {
+        if (done) {
+            lastReward = 0;
+            return observation;
+        }
+
+        read(before);
+
+        chip.setKeys(keyMask);
+
+        try {
+            long end = (chip.frame() + frames) * chip.cycles_per_frame; // a restored state may run at another rate
+
+            while (chip.cycles < end) {
+                chip.run((int) Math.min(end - chip.cycles, Integer.MAX_VALUE));
+            }
+        } catch (UnknownOpcodeException | RuntimeException e) {
+            // e.g. a stack under- or overflow, the episode is over
+            done = true;
+            failure = e;
+        }
+
+        read(after);
+        lastReward = reward == null ? 0 : reward.reward(before, after);
+
+        return observe();
+    }
+
+    /**
+     * Reward of the last step.
+     */
+    public double reward() {
+        return lastReward;
+    }
+
+    /**
+     * Whether the episode ended, the ROM having run into an unknown opcode or crashed. Steps do nothing until reset.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * What ended the episode, or null.
+     */
+    public Exception failure() {
+        return failure;
+    }
+
+    /**
+     * Frames run since the last reset.
+     */
+    public long frame() {
+        return chip.frame();
+    }
+
+    /**
+     * Value of a byte of memory, e.g. for rewards not expressible through the hook.
+     */
+    public int peek(int address) {
+        return chip.memory[address & (chip.memory.length - 1)];
+    }
+
+    /**
+     * Snapshots the machine.
+     */
+    public State cloneState() {
+        State state = new State();
+        cloneState(state);
+        return state;
+    }
+
+    /**
+     * Snapshots the machine into an existing state, reusing its storage.
+     */
+    public void cloneState(State state) {
+        state.save(chip);
+        state.done = done;
+    }
+
+    /**
+     * Puts back a snapshot, taken from this or any other environment. Only code decoded from memory that differs is
+     * dropped, so branching repeatedly from one state keeps its compiled blocks.
+     */
+    public void restoreState(State state) {
+        state.restore(chip);
+        done = state.done;
+        lastReward = 0;
+    }
+
+    private void read(int[] values) {
+        for (int i = 0; i < addresses.length; i++) {
+            values[i] = chip.memory[addresses[i] & (chip.memory.length - 1)];
+        }
+    }
+
+    private long[] observe() {
+        System.arraycopy(chip.graphics, 0, observation, 0, observation.length);
+        return observation;
+    }
+}
@@ -0,0 +1,105 @@
+package com.blanelegant.chip8008;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A fixed number of {@link Environment}s stepped together across a work-stealing pool, each with its own keys. The
+ * environments share one recompiler, so a ROM is only compiled once for the whole batch. Stepping splits the batch in
+ * slices of several environments, keeping the cost of handing out work small next to the emulation itself.
+ */
+public final class EnvironmentBatch implements AutoCloseable {
+
+    private final Environment[] environments;
+    private final ForkJoinPool pool;
+    private final int grain; // environments stepped by a single task
+
+    /**
+     * Steps a slice of the batch, splitting it in halves for idle workers to steal down to the grain.
+     */
+    private final class Slice extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int[] keyMasks;
+        private final int frames;
+
+        Slice(int from, int to, int[] keyMasks, int frames) {
+            this.from = from;
+            this.to = to;
+            this.keyMasks = keyMasks;
+            this.frames = frames;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int i = from; i < to; i++) {
+                    environments[i].step(keyMasks[i], frames);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Slice(from, middle, keyMasks, frames), new Slice(middle, to, keyMasks, frames));
+            }
+        }
+    }
+
+    public EnvironmentBatch(int size, int cyclesPerFrame, int threads) {
+        BlockCompiler recompiler = new BlockCompiler();
+
+        environments = new Environment[size];
+        for (int i = 0; i < size; i++) {
+            environments[i] = new Environment(cyclesPerFrame, recompiler);
+        }
+
+        pool = new ForkJoinPool(threads);
+        grain = Math.max(1, size / (threads * 4)); // a few slices per thread to balance uneven steps
+    }
+
+    public EnvironmentBatch(int size) {
+        this(size, Chip8.DEFAULT_CYCLES_PER_FRAME, Runtime.getRuntime().availableProcessors());
+    }
+
+    public int size() {
+        return environments.length;
+    }
+
+    /**
+     * The environment at the given index, e.g. to set its reward hook, read its results or clone its state. Not to
+     * be used while the batch is stepping.
+     */
+    public Environment get(int index) {
+        return environments[index];
+    }
+
+    /**
+     * Resets every environment to the ROM, environment n with the seed seeds[n]. The environments share a single
+     * image of the ROM, each copying it only once it stores into memory.
+     */
+    public void reset(byte[] rom, long[] seeds) {
+        RomImage image = new RomImage(rom);
+
+        for (int i = 0; i < environments.length; i++) {
+            environments[i].reset(image, seeds[i]);
+        }
+    }
+
+    /**
+     * Steps every environment the given number of frames, environment n with the keys in keyMasks[n] held down, and
+     * returns once all are done. Observations and rewards are then read from the environments.
+     */
+    public void step(int[] keyMasks, int frames) {
+        if (keyMasks.length != environments.length) {
+            throw new IllegalArgumentException("Expected " + environments.length + " key masks, got " + keyMasks.length);
+        }
+
+        pool.invoke(new Slice(0, environments.length, keyMasks, frames));
+    }
+
+    /**
+     * Shuts the thread pool down.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,73 @@
+package com.blanelegant.chip8008;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer handing finished frames from the emulation thread to the UI thread. The producer always
+ * has a back buffer to draw into and the consumer always has a front buffer to read from, so neither ever waits on
+ * the other and a frame is never read while it is being written. Frames the consumer didn't pick up in time are
+ * dropped, their dirty rows are carried over until a frame is known to have been taken.
+ */
+final class FrameExchange {
+
+    /**
+     * A published copy of the display, laid out as in {@link Chip8#graphics}.
+     */
+    static final class Frame {
+        final long[] rows = new long[Chip8.PLANES * Chip8.PLANE_WORDS];
+        int width;
+        int height;
+        long dirtyRows; // at least the rows changed since the previously taken frame
+    }
+
+    private static final int INDEX = 0x3;
+    private static final int FRESH = 0x4; // the middle buffer holds a frame not taken yet
+
+    private final Frame[] frames;
+    private final AtomicInteger middle = new AtomicInteger(1);
+
+    private int back = 0; // owned by the producer
+    private int front = 2; // owned by the consumer
+    private long untakenRows; // rows changed since the last frame known to have been taken
+
+    FrameExchange() {
+        frames = new Frame[] { new Frame(), new Frame(), new Frame() };
+    }
+
+    /**
+     * Publishes a copy of the display, only the part of each bitplane the given resolution takes up. Only to be
+     * called from the producing thread.
+     */
+    void publish(long[] rows, int width, int height, long dirtyRows) {
+        Frame frame = frames[back];
+        int words = width / 64 * height;
+
+        System.arraycopy(rows, 0, frame.rows, 0, words);
+        System.arraycopy(rows, Chip8.PLANE_WORDS, frame.rows, Chip8.PLANE_WORDS, words);
+        frame.width = width;
+        frame.height = height;
+        untakenRows |= dirtyRows;
+        frame.dirtyRows = untakenRows;
+
+        int previous = middle.getAndSet(back | FRESH);
+        back = previous & INDEX;
+
+        // once the previous frame was taken, the consumer only misses what changed in this one
+        if ((previous & FRESH) == 0) {
+            untakenRows = dirtyRows;
+        }
+    }
+
+    /**
+     * Takes the most recently published frame. Only to be called from the consuming thread.
+     * @return the latest frame, or null if nothing was published since the last call
+     */
+    Frame take() {
+        if ((middle.get() & FRESH) == 0) {
+            return null;
+        }
+
+        front = middle.getAndSet(front) & INDEX;
+        return frames[front];
+    }
+}
@@ -0,0 +1,198 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Command line runner for a single ROM, for scripted runs such as test jobs starting one JVM per ROM. Unlike
+ * {@link Main} it never touches JavaFX or Swing, and it keeps clear of what would pull in more of the runtime than
+ * the emulator core needs: the runner itself uses no lambdas, streams, string formatting or concatenation on the way
+ * to the first instruction, as each of those costs milliseconds of class loading and linking in a fresh JVM. The
+ * exception is the {@link InstructionTable}, whose handlers are method references bootstrapped when it is built.
+ * The class data sharing archive built by {@code mvn package -Pcds} also holds the classes generated for those, and
+ * cuts start-up further.
+ *
+ * Usage: Headless [--cycles N] [--cycles-per-frame N] [--seed N] [--keys MASK] [--expect HASH] [--screen]
+ * [--interpret] [--break ADDRESS[:VX=VALUE]]... [--watch FROM[-TO][:r|w|rw]]... [--load STATE] [--save STATE] ROM
+ *
+ * The keys are held down from the start, given as a hex mask with bit n set for key n. With --load, the run starts
+ * from a {@link SaveState} file rather than from reset and goes on for the given number of cycles from there; with
+ * --save, the machine is saved where the run ended, whatever the status. Breakpoints and watchpoints,
+ * in hex, stop the run at the first one hit, see {@link Debugger}. Prints one tab separated line: status, cycles run
+ * and the hash of the final screen in hex, preceded by the screen itself with --screen, in whichever resolution it
+ * ended up in. Exits with 0 when the ROM ran its cycles and, if expected, ended on the given screen hash, 1 when it
+ * did not or hit a breakpoint and 2 when it could not be run at all.
+ */
+public final class Headless {
+
+    static final long DEFAULT_CYCLES = 1_000_000;
+
+    // how --screen prints a pixel set in no bitplane, the first, the second and both
+    private static final char[] PIXELS = { '.', '#', '+', '@' };
+
+    private Headless() {
+
+    }
+
+    public static void main(String[] args) {
+        long cycles = DEFAULT_CYCLES;
+        int cyclesPerFrame = Chip8.DEFAULT_CYCLES_PER_FRAME;
+        long seed = 0;
+        int keys = 0;
+        Long expected = null;
+        boolean screen = false;
+        boolean interpret = false;
+        String rom = null;
+        Debugger debugger = null;
+        String load = null;
+        String save = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--cycles":
+                        cycles = Long.parseLong(args[++i]);
+                        break;
+                    case "--cycles-per-frame":
+                        cyclesPerFrame = Integer.parseInt(args[++i]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+                    case "--keys":
+                        keys = Integer.parseInt(args[++i], 16) & 0xFFFF;
+                        break;
+                    case "--expect":
+                        expected = Long.parseUnsignedLong(args[++i], 16);
+                        break;
+                    case "--screen":
+                        screen = true;
+                        break;
+                    case "--interpret":
+                        interpret = true;
+                        break;
+                    case "--break":
+                        debugger = debugger == null ? new Debugger() : debugger;
+                        debugger.addBreakpoint(args[++i]);
+                        break;
+                    case "--watch":
+                        debugger = debugger == null ? new Debugger() : debugger;
+                        debugger.addWatchpoint(args[++i]);
+                        break;
+                    case "--load":
+                        load = args[++i];
+                        break;
+                    case "--save":
+                        save = args[++i];
+                        break;
+                    default:
+                        if (args[i].startsWith("--") || rom != null) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        rom = args[i];
+                }
+            }
+
+            if (rom == null || cycles < 0 || cyclesPerFrame < 1
+                    || cyclesPerFrame > Chip8.MAX_CYCLES_PER_FRAME) {
+                throw new IllegalArgumentException("Missing or invalid arguments");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: Headless [--cycles N] [--cycles-per-frame N] [--seed N] [--keys MASK] "
+                    + "[--expect HASH] [--screen] [--interpret] [--break ADDRESS[:VX=VALUE]]... "
+                    + "[--watch FROM[-TO][:r|w|rw]]... [--load STATE] [--save STATE] ROM");
+            System.exit(2);
+            return;
+        }
+
+        Chip8 chip = new Chip8();
+
+        try {
+            chip.reset(RomImage.read(Paths.get(rom)));
+        } catch (IOException e) {
+            System.err.println("Cannot load ROM: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        chip.setCyclesPerFrame(cyclesPerFrame);
+        chip.setSeed(seed);
+
+        if (load != null) {
+            try {
+                SaveState.read(chip, Paths.get(load));
+            } catch (IOException e) {
+                System.err.println("Cannot load state: " + e.getMessage());
+                System.exit(2);
+                return;
+            }
+        }
+
+        chip.setKeys(keys);
+
+        if (!interpret) {
+            chip.setBlockCacheEnabled(true);
+            chip.setRecompiler(new BlockCompiler());
+        }
+
+        if (debugger != null) {
+            debugger.attach(chip);
+        }
+
+        String status = "OK";
+        String error = null;
+
+        long end = chip.cycles + cycles;
+
+        try {
+            while (chip.cycles < end) {
+                chip.run((int) Math.min(end - chip.cycles, Integer.MAX_VALUE));
+            }
+        } catch (BreakpointException e) {
+            status = "BREAK";
+            error = e.getMessage();
+        } catch (UnknownOpcodeException e) {
+            status = "UNKNOWN_OPCODE";
+            error = e.getMessage();
+        } catch (RuntimeException e) {
+            status = "CRASH";
+            error = e.toString();
+        }
+
+        if (save != null) {
+            try {
+                SaveState.write(chip, Paths.get(save));
+            } catch (IOException e) {
+                System.err.println("Cannot save state: " + e.getMessage());
+                System.exit(2);
+                return;
+            }
+        }
+
+        long hash = chip.screenHash();
+
+        if (error == null && expected != null && hash != expected) {
+            status = "MISMATCH";
+        }
+
+        StringBuilder out = new StringBuilder(chip.screenHeight() * (chip.screenWidth() + 1) + 64);
+
+        if (screen) {
+            for (int y = 0; y < chip.screenHeight(); y++) {
+                for (int x = 0; x < chip.screenWidth(); x++) {
+                    out.append(PIXELS[chip.pixel(x, y)]);
+                }
+                out.append('\n');
+            }
+        }
+
+        out.append(status).append('\t').append(chip.cycles).append('\t').append(Long.toHexString(hash));
+        if (error != null) {
+            out.append('\t').append(error);
+        }
+
+        System.out.println(out);
+        System.exit(status.equals("OK") ? 0 : 1);
+    }
+}
@@ -0,0 +1,90 @@
+package com.blanelegant.chip8008;
+
+/**
+ * A single pre-decoded CHIP-8 opcode: the handler that executes it along with its already extracted operands.
+ */
+final class Instruction {
+
+    /**
+     * Executes a decoded instruction against the state of a machine.
+     */
+    interface Handler {
+        void execute(Chip8 chip, Instruction instruction) throws UnknownOpcodeException;
+    }
+
+    // flags describing how an instruction affects straight-line execution
+    static final int BRANCH = 0x1; // may change the program counter (jumps, calls, skips, key waits)
+    static final int WRITES_MEMORY = 0x2; // stores into memory, possibly over code
+
+    final char opcode; // raw 16 bit opcode
+    final String name; // opcode pattern, e.g. 8XY4
+    final Handler handler;
+    final int flags;
+
+    // operands, extracted once at decode time
+    final int x; // 0X00
+    final int y; // 00Y0
+    final int n; // 000N
+    final int nn; // 00NN
+    final int nnn; // 0NNN
+
+    // second instruction of a superinstruction, run by its handler after this one, null for single instructions
+    final Instruction next;
+
+    Instruction(char opcode, String name, Handler handler) {
+        this(opcode, name, handler, 0);
+    }
+
+    Instruction(char opcode, String name, Handler handler, int flags) {
+        this.opcode = opcode;
+        this.name = name;
+        this.handler = handler;
+        this.flags = flags;
+
+        x = (opcode & 0x0F00) >>> 8;
+        y = (opcode & 0x00F0) >>> 4;
+        n = opcode & 0x000F;
+        nn = opcode & 0x00FF;
+        nnn = opcode & 0x0FFF;
+
+        next = null;
+    }
+
+    /**
+     * Superinstruction running the given pair of consecutive instructions, see {@link Superinstructions}. It takes
+     * the opcode and operands of the first and ends a basic block if either would.
+     */
+    Instruction(Instruction first, Handler handler, Instruction next) {
+        this.opcode = first.opcode;
+        this.name = first.name + "+" + next.name;
+        this.handler = handler;
+        this.flags = first.flags | next.flags;
+
+        x = first.x;
+        y = first.y;
+        n = first.n;
+        nn = first.nn;
+        nnn = first.nnn;
+
+        this.next = next;
+    }
+
+    /**
+     * Number of instructions, and so cycles, this stands for at most.
+     */
+    int length() {
+        return next == null ? 1 : 2;
+    }
+
+    /**
+     * Whether a basic block has to end after this instruction.
+     */
+    boolean endsBlock() {
+        return flags != 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%04X (%s)", (int) opcode, name);
+    }
+}
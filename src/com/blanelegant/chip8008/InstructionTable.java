@@ -0,0 +1,239 @@
+package com.blanelegant.chip8008;
+
+/**
+ * Dense dispatch table holding a pre-decoded {@link Instruction} for every one of the 65,536 possible opcodes.
+ * The table is built once, so executing an instruction is a single indexed lookup followed by a single call.
+ */
+final class InstructionTable {
+
+    static final String UNKNOWN = "????";
+
+    // the one handler every unrecognised opcode is routed to
+    private static final Instruction.Handler UNKNOWN_HANDLER = (chip, instruction) -> {
+        throw new UnknownOpcodeException(instruction.opcode);
+    };
+
+    static final Instruction[] TABLE = build();
+
+    private InstructionTable() {
+
+    }
+
+    /**
+     * Decodes every opcode into a fresh table. Filled through a local rather than through TABLE from a static
+     * block: until the class is initialized the interpreter resolves its static fields again on every access, which
+     * made building the table take several times as long and dominated the start-up of short runs.
+     */
+    private static Instruction[] build() {
+        Instruction[] table = new Instruction[0x10000];
+
+        for (int opcode = 0; opcode < table.length; opcode++) {
+            table[opcode] = decode((char) opcode);
+        }
+
+        return table;
+    }
+
+    /**
+     * Decodes a single opcode into its handler and operands.
+     */
+    static Instruction decode(char opcode) {
+
+        // possible initial nibble: 0, 1, 2, 3,4, 5, 6, 7, 8, 9, A, B, C, D, E, F
+        switch (opcode & 0xF000) {
+
+            case 0x0000:
+
+                switch (opcode) {
+
+                    case 0x00E0: // 00E0: Clears the screen.
+                        return new Instruction(opcode, "00E0", Chip8::op00E0);
+
+                    case 0x00EE: // 00EE: Returns from a subroutine.
+                        return new Instruction(opcode, "00EE", Chip8::op00EE, Instruction.BRANCH);
+
+                    case 0x00FB: // 00FB: Scrolls right by 4 pixels.
+                        return new Instruction(opcode, "00FB", Chip8::op00FB);
+
+                    case 0x00FC: // 00FC: Scrolls left by 4 pixels.
+                        return new Instruction(opcode, "00FC", Chip8::op00FC);
+
+                    case 0x00FD: // 00FD: Exits the interpreter.
+                        return new Instruction(opcode, "00FD", Chip8::op00FD, Instruction.BRANCH);
+
+                    case 0x00FE: // 00FE: Switches to low resolution.
+                        return new Instruction(opcode, "00FE", Chip8::op00FE);
+
+                    case 0x00FF: // 00FF: Switches to high resolution.
+                        return new Instruction(opcode, "00FF", Chip8::op00FF);
+                }
+
+                switch (opcode & 0xFFF0) {
+
+                    case 0x00C0: // 00CN: Scrolls down by N rows.
+                        return new Instruction(opcode, "00CN", Chip8::op00CN);
+
+                    case 0x00D0: // 00DN: Scrolls up by N rows.
+                        return new Instruction(opcode, "00DN", Chip8::op00DN);
+                }
+                break;
+
+            case 0x1000: // 1NNN: Jumps to address NNN.
+                return new Instruction(opcode, "1NNN", Chip8::op1NNN, Instruction.BRANCH);
+
+            case 0x2000: // 2NNN: Calls subroutine at NNN.
+                return new Instruction(opcode, "2NNN", Chip8::op2NNN, Instruction.BRANCH);
+
+            case 0x3000: // 3XNN: Skips the next instruction if VX = NN.
+                return new Instruction(opcode, "3XNN", Chip8::op3XNN, Instruction.BRANCH);
+
+            case 0x4000: // 4XNN: Skips the next instruction if VX != NN.
+                return new Instruction(opcode, "4XNN", Chip8::op4XNN, Instruction.BRANCH);
+
+            case 0x5000:
+
+                switch (opcode & 0x000F) {
+
+                    case 0x0000: // 5XY0: Skips the next instruction if VX = VY.
+                        return new Instruction(opcode, "5XY0", Chip8::op5XY0, Instruction.BRANCH);
+
+                    case 0x0002: // 5XY2: Stores VX to VY in memory starting at address I.
+                        return new Instruction(opcode, "5XY2", Chip8::op5XY2, Instruction.WRITES_MEMORY);
+
+                    case 0x0003: // 5XY3: Loads VX to VY from memory starting at address I.
+                        return new Instruction(opcode, "5XY3", Chip8::op5XY3);
+                }
+                break;
+
+            case 0x6000: // 6XNN: Sets VX to NN.
+                return new Instruction(opcode, "6XNN", Chip8::op6XNN);
+
+            case 0x7000: // 7XNN: Adds NN to VX. (Carry flag is not changed)
+                return new Instruction(opcode, "7XNN", Chip8::op7XNN);
+
+            case 0x8000: // possible ending nibbles: 0, 1, 2, 3, 4, 5, 6 , 7, E
+
+                switch (opcode & 0x000F) {
+
+                    case 0x0000: // 8XY0: Sets VX to the value of VY.
+                        return new Instruction(opcode, "8XY0", Chip8::op8XY0);
+
+                    case 0x0001: // 8XY1: Sets VX to VX or VY. (Bitwise OR operation)
+                        return new Instruction(opcode, "8XY1", Chip8::op8XY1);
+
+                    case 0x0002: // 8XY2: Sets VX to VX and VY. (Bitwise AND operation)
+                        return new Instruction(opcode, "8XY2", Chip8::op8XY2);
+
+                    case 0x0003: // 8XY3: Sets VX to VX xor VY.
+                        return new Instruction(opcode, "8XY3", Chip8::op8XY3);
+
+                    case 0x0004: // 8XY4: Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't.
+                        return new Instruction(opcode, "8XY4", Chip8::op8XY4);
+
+                    case 0x0005: // 8XY5: VY is subtracted from VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
+                        return new Instruction(opcode, "8XY5", Chip8::op8XY5);
+
+                    case 0x0006: // 8XY6: Shifts VY right by one and copies the result to VX.
+                        return new Instruction(opcode, "8XY6", Chip8::op8XY6);
+
+                    case 0x0007: // 8XY7: Sets VX to VY minus VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
+                        return new Instruction(opcode, "8XY7", Chip8::op8XY7);
+
+                    case 0x000E: // 8XYE: Shifts VY left by one and copies the result to VX.
+                        return new Instruction(opcode, "8XYE", Chip8::op8XYE);
+                }
+                break;
+
+            case 0x9000: // 9XY0: Skips the next instruction if VX doesn't equal VY.
+                if ((opcode & 0x000F) == 0x0000) {
+                    return new Instruction(opcode, "9XY0", Chip8::op9XY0, Instruction.BRANCH);
+                }
+                break;
+
+            case 0xA000: // ANNN: Sets I to the address.
+                return new Instruction(opcode, "ANNN", Chip8::opANNN);
+
+            case 0xB000: // BNNN: Jumps to the address NNN plus V0.
+                return new Instruction(opcode, "BNNN", Chip8::opBNNN, Instruction.BRANCH);
+
+            case 0xC000: // CXNN: Sets VX to the result of & operation on a random number.
+                return new Instruction(opcode, "CXNN", Chip8::opCXNN);
+
+            case 0xD000: // DXYN: Draws a sprite at coordinate (VX, VY) with a width of 8 pix, and a height of N pix.
+                // DXY0 draws a 16x16 sprite
+                return new Instruction(opcode, "DXYN", Chip8::opDXYN);
+
+            case 0xE000:
+
+                // Possible ending bytes: 9E, A1.
+                switch (opcode & 0x00FF) {
+
+                    case 0x009E: // EX9E: Skips the next instruction if the key stored in VX is pressed.
+                        return new Instruction(opcode, "EX9E", Chip8::opEX9E, Instruction.BRANCH);
+
+                    case 0x00A1: // EXA1: Skips the next instruction if the key stored in VX isn't pressed.
+                        return new Instruction(opcode, "EXA1", Chip8::opEXA1, Instruction.BRANCH);
+                }
+                break;
+
+            case 0xF000:
+
+                switch (opcode) {
+
+                    case 0xF000: // F000 NNNN: Sets I to the 16 bit address NNNN.
+                        return new Instruction(opcode, "F000", Chip8::opF000, Instruction.BRANCH);
+
+                    case 0xF002: // F002: Loads the audio pattern from memory starting at address I.
+                        return new Instruction(opcode, "F002", Chip8::opF002);
+                }
+
+                switch (opcode & 0x00FF) {
+
+                    case 0x0001: // FN01: Selects the bitplanes to draw on.
+                        return new Instruction(opcode, "FN01", Chip8::opFN01);
+
+                    case 0x0007: // FX07: Sets VX to the value of the delay timer.
+                        return new Instruction(opcode, "FX07", Chip8::opFX07);
+
+                    case 0x000A: // FX0A: A key press is awaited, then stored in VX.
+                        return new Instruction(opcode, "FX0A", Chip8::opFX0A, Instruction.BRANCH);
+
+                    case 0x0015: // FX15: Sets the delay timer to VX.
+                        return new Instruction(opcode, "FX15", Chip8::opFX15);
+
+                    case 0x0018: // FX18: Sets the sound timer to VX.
+                        return new Instruction(opcode, "FX18", Chip8::opFX18);
+
+                    case 0x001E: // FX1E: Adds VX to I.
+                        return new Instruction(opcode, "FX1E", Chip8::opFX1E);
+
+                    case 0x0029: // FX29: Sets I to the location of the sprite for the character in VX.
+                        return new Instruction(opcode, "FX29", Chip8::opFX29);
+
+                    case 0x0030: // FX30: Sets I to the location of the 8x10 sprite for the character in VX.
+                        return new Instruction(opcode, "FX30", Chip8::opFX30);
+
+                    case 0x0033: // FX33: Stores the binary-coded decimal representation of VX at I, I+1 and I+2.
+                        return new Instruction(opcode, "FX33", Chip8::opFX33, Instruction.WRITES_MEMORY);
+
+                    case 0x003A: // FX3A: Sets the audio pitch to VX.
+                        return new Instruction(opcode, "FX3A", Chip8::opFX3A);
+
+                    case 0x0055: // FX55: Stores V0 to VX in memory starting at address I.
+                        return new Instruction(opcode, "FX55", Chip8::opFX55, Instruction.WRITES_MEMORY);
+
+                    case 0x0065: // FX65: Fills V0 to VX with values from memory starting at address I.
+                        return new Instruction(opcode, "FX65", Chip8::opFX65);
+
+                    case 0x0075: // FX75: Stores V0 to VX in the flag registers.
+                        return new Instruction(opcode, "FX75", Chip8::opFX75);
+
+                    case 0x0085: // FX85: Fills V0 to VX from the flag registers.
+                        return new Instruction(opcode, "FX85", Chip8::opFX85);
+                }
+                break;
+        }
+
+        return new Instruction(opcode, UNKNOWN, UNKNOWN_HANDLER, Instruction.BRANCH);
+    }
+}
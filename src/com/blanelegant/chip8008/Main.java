@@ -1,32 +1,47 @@
 package com.blanelegant.chip8008;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
-import javafx.scene.image.PixelWriter;
+import javafx.scene.input.KeyCode;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
-import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 
 public class Main extends Application {
 
     // global constants
-    static final int SCALE_FACTOR = 10; // amount to scale the native 64x32 display by
+    static final int SCALE_FACTOR = 10; // amount to scale the native 64x32 display by, 128x64 is drawn at half
+    static final int TURBO_FRAME_SKIP = 4; // present every 4th frame in turbo mode
+    static final int REWIND_STEP = 60; // frames stepped back per click of the rewind button
+
+    // keyboard layout of the hex keypad, KEYMAP[n] is the key standing in for CHIP-8 key n
+    static final KeyCode[] KEYMAP = {
+            KeyCode.X, KeyCode.DIGIT1, KeyCode.DIGIT2, KeyCode.DIGIT3, // 0 1 2 3
+            KeyCode.Q, KeyCode.W, KeyCode.E, KeyCode.A, // 4 5 6 7
+            KeyCode.S, KeyCode.D, KeyCode.Z, KeyCode.C, // 8 9 A B
+            KeyCode.DIGIT4, KeyCode.R, KeyCode.F, KeyCode.V // C D E F
+    };
 
     static GraphicsContext gc; // needs to be instance member so we can access in methods other than main
+    static ScreenRenderer renderer;
     static Chip8 myChip8;
 
-    static boolean run;
+    static FrameExchange frames; // finished frames from the emulation thread
+    static Emulator emulator;
+    static RomLibrary library; // null unless one was given
 
     /**
      * Entry point into the application.
@@ -41,20 +56,67 @@ public class Main extends Application {
 
         myChip8.initialize();
 
-        launch(args); // launch main application UI
+        // main emulation loop runs on its own thread, paused until started
+        frames = new FrameExchange();
+        emulator = new Emulator(myChip8, frames);
 
-        // main emulation loop
-        while(run) {
-            myChip8.tick();
+        // -Dchip8008.state=FILE publishes the machine's state every frame, to be watched with StateMonitor
+        if (System.getProperty("chip8008.state") != null) {
+            Path state = FileSystems.getDefault().getPath(System.getProperty("chip8008.state"));
+            emulator.setStateView(StateView.create(state));
+        }
 
-            // If the draw flag is set, update the screen
-            if(myChip8.drawFlag) {
-                updateScreen();
+        emulator.start();
+
+        // -Dchip8008.profile=true publishes execution profiles through JMX and JFR
+        if (Boolean.getBoolean("chip8008.profile")) {
+            emulator.setProfiling(true);
+        }
+
+        // -Dchip8008.trace=FILE records every executed instruction, to be read with TraceReader
+        if (System.getProperty("chip8008.trace") != null) {
+            emulator.setTracing(FileSystems.getDefault().getPath(System.getProperty("chip8008.trace")));
+        }
+
+        // -Dchip8008.movie=FILE records the keypad from the next ROM loaded on, to be replayed with MoviePlayer
+        if (System.getProperty("chip8008.movie") != null) {
+            emulator.setMovieRecording(FileSystems.getDefault().getPath(System.getProperty("chip8008.movie")));
+        }
+
+        // -Dchip8008.break=SPEC,... and -Dchip8008.watch=SPEC,... pause on breakpoints and watchpoints, see Debugger
+        if (System.getProperty("chip8008.break") != null || System.getProperty("chip8008.watch") != null) {
+            Debugger debugger = new Debugger();
+
+            for (String spec : System.getProperty("chip8008.break", "").split(",")) {
+                if (!spec.isEmpty()) {
+                    debugger.addBreakpoint(spec);
+                }
+            }
+            for (String spec : System.getProperty("chip8008.watch", "").split(",")) {
+                if (!spec.isEmpty()) {
+                    debugger.addWatchpoint(spec);
+                }
             }
+            emulator.setDebugger(debugger);
+        }
 
-            // Store key press state (Press and Release)
-//            myChip8.setKeys();
+        // -Dchip8008.library=DIR opens the chooser in a ROM library, running its ROMs at their saved settings
+        if (System.getProperty("chip8008.library") != null) {
+            library = RomLibrary.open(FileSystems.getDefault().getPath(System.getProperty("chip8008.library")));
+
+            // pick up ROMs added since the index was written without holding up the window
+            Thread refresh = new Thread(() -> {
+                try {
+                    library.refresh(Runtime.getRuntime().availableProcessors());
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }, "chip8008-library");
+            refresh.setDaemon(true);
+            refresh.start();
         }
+
+        launch(args); // launch main application UI
     }
 
     @Override
@@ -67,11 +129,16 @@ public class Main extends Application {
         // instantiate UI components
         Button fileOpenButton = new Button("Open ROM");
         Button pauseButton = new Button("Start"); // default text
-        final Canvas screen = new Canvas(64 * SCALE_FACTOR, 32 * SCALE_FACTOR); // 10x
+        Button turboButton = new Button("Turbo");
+        Button rewindButton = new Button("Rewind");
+        Button saveButton = new Button("Save");
+        Button loadButton = new Button("Load");
+        final Canvas screen = new Canvas(Chip8.DISPLAY_WIDTH * SCALE_FACTOR, Chip8.DISPLAY_HEIGHT * SCALE_FACTOR);
         gc = screen.getGraphicsContext2D(); // needed to access the canvas
-        HBox toolbar = new HBox(fileOpenButton, pauseButton); // add toolbar with button
+        HBox toolbar = new HBox(fileOpenButton, pauseButton, turboButton, rewindButton, saveButton,
+                loadButton); // add toolbar with button
 
-        PixelWriter pixelWriter = gc.getPixelWriter(); // will be used to write the individual pixels
+        renderer = new ScreenRenderer(gc);
 
         // set up main layout container
         BorderPane borderPane = new BorderPane();
@@ -83,7 +150,7 @@ public class Main extends Application {
         // open button listener
         fileOpenButton.setOnMouseClicked(event -> {
 
-            JFileChooser chooser = new JFileChooser(".");
+            JFileChooser chooser = new JFileChooser(library != null ? library.root.toFile() : new File("."));
             chooser.setMultiSelectionEnabled(false);
             chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
 
@@ -94,54 +161,123 @@ public class Main extends Application {
 
             int ret = chooser.showOpenDialog(null);
             if(ret == JFileChooser.APPROVE_OPTION) {
-                myChip8.load(chooser.getSelectedFile().toPath());
+                Path rom = chooser.getSelectedFile().toPath();
+                RomLibrary.Entry entry = library != null ? library.find(rom) : null;
+
+                if (entry != null && entry.cyclesPerFrame > 0) {
+                    emulator.load(rom, entry.cyclesPerFrame);
+                } else {
+                    emulator.load(rom);
+                }
             }
 
         });
 
         // open button listener
         pauseButton.setOnMouseClicked(event -> {
-            run = (run) ? false : true;
-            pauseButton.setText((run) ? "Pause" : "Run");
+            emulator.setRunning(!emulator.isRunning());
+            pauseButton.setText(emulator.isRunning() ? "Pause" : "Run");
+        });
+
+        // turbo button listener, runs uncapped and shows every 4th frame
+        turboButton.setOnMouseClicked(event -> {
+            emulator.setTurbo(!emulator.isTurbo(), TURBO_FRAME_SKIP);
+            turboButton.setText(emulator.isTurbo() ? "Normal" : "Turbo");
+        });
+
+        // rewind button listener, steps back a second
+        rewindButton.setOnMouseClicked(event -> emulator.rewind(REWIND_STEP));
+
+        // save and load button listeners, write the machine to a save state file and restore it from one
+        saveButton.setOnMouseClicked(event -> {
+            JFileChooser chooser = stateChooser();
+
+            if (chooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
+                emulator.saveState(chooser.getSelectedFile().toPath());
+            }
         });
+        loadButton.setOnMouseClicked(event -> {
+            JFileChooser chooser = stateChooser();
+
+            if (chooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+                emulator.loadState(chooser.getSelectedFile().toPath());
+            }
+        });
+
+        // present the latest finished frame on every pulse of the FX thread
+        new AnimationTimer() {
+            private boolean running;
+
+            @Override
+            public void handle(long now) {
+                updateScreen();
+
+                // the emulator pauses itself on errors
+                if (running != emulator.isRunning()) {
+                    running = emulator.isRunning();
+                    pauseButton.setText(running ? "Pause" : "Run");
+                }
+
+                String error = emulator.takeError();
+                if (error != null) {
+                    new Alert(Alert.AlertType.ERROR, error).show();
+                }
+            }
+        }.start();
 
         // set background color
 //        screen.setStyle("-fx-background-color: black");
 
         // final steps, create window and show
         Scene scene = new Scene(borderPane, (64 * SCALE_FACTOR), (32 * SCALE_FACTOR) + 32);
+
+        // keypad listeners
+        scene.setOnKeyPressed(event -> setKey(event.getCode(), true));
+        scene.setOnKeyReleased(event -> setKey(event.getCode(), false));
         primaryStage.setScene(scene);
         primaryStage.show(); // show window
     }
 
     /**
-     * This method should read the chip-8 graphics buffer and write the canvas's pixels
+     * File chooser for save state files.
      */
-    public static void updateScreen() {
+    private static JFileChooser stateChooser() {
+        JFileChooser chooser = new JFileChooser(new File("."));
+        chooser.setMultiSelectionEnabled(false);
+        chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
 
-        // update row
-        for (int row = 0; row < 64; row++) { // iterate through rows
-            // update column
-            for (int column = 0; column < 32; column++) { // iterate through columns
-                if (myChip8.graphics[(row * 64) + column] == 0x01) { // if pixel == 1
-                    drawPixel(row, column, Color.GRAY); // color the pixel
-                } else {
-                    drawPixel(row, column, Color.BLACK);
-                }
+        FileFilter filter = new FileNameExtensionFilter("CHIP-8 save state", "c8s");
+        chooser.addChoosableFileFilter(filter);
+        chooser.setFileFilter(filter);
+
+        return chooser;
+    }
+
+    /**
+     * Forwards a keyboard event to the emulator if the key is mapped onto the hex keypad.
+     */
+    private static void setKey(KeyCode code, boolean pressed) {
+        for (int key = 0; key < KEYMAP.length; key++) {
+            if (KEYMAP[key] == code) {
+                emulator.setKey(key, pressed);
             }
         }
     }
 
+    @Override
+    public void stop() {
+        emulator.stop();
+    }
+
     /**
-     * This method should draw a single CHIP-8 pixel onto the canvas.
-     * @param x the x-coordinate of the pixel to draw
-     * @param y the y-coordinate of the pixel to draw
+     * This method takes the latest frame published by the emulation thread, if any, and uploads the rows that
+     * changed to the canvas.
      */
-    private static void drawPixel(int x, int y, Color color) {
-        for (int row = 0; row < SCALE_FACTOR; row++) { // update row / vertical lines
-            for (int column = 0; column < SCALE_FACTOR; column++) { // update column / horizontal lines
-                gc.getPixelWriter().setColor((x * SCALE_FACTOR) + column, (y * SCALE_FACTOR) + row, color);
-            }
+    public static void updateScreen() {
+        FrameExchange.Frame frame = frames.take();
+
+        if (frame != null) {
+            renderer.present(frame.rows, frame.width, frame.height, frame.dirtyRows);
         }
     }
 }
@@ -1,7 +1,149 @@
 package com.blanelegant.chip8008;
 
-private class MainTimer {
-    public MainTimer() {
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Central 60 Hz scheduler driving a {@link Chip8}. Every frame runs the machine's configured number of instructions
+ * and hands the screen to a {@link FrameExchange} when it changed.
+ *
+ * Paced frames are scheduled against absolute deadlines taken from {@link System#nanoTime()}, so lateness of one
+ * frame is made up in the next rather than accumulating, and the thread parks in between. In turbo mode frames run
+ * back to back and only every Nth one is presented.
+ *
+ * When a paced frame ends with the machine spinning in an idle loop, the thread parks until the loop can end, that
+ * is until a timer runs out or it is unparked for a key event, and then catches up on the frames that passed. The
+ * frame listener hears about every frame run, those caught up on included.
+ */
+class MainTimer {
+
+    static final long FRAME_NANOS = 1_000_000_000L / 60;
+
+    // how far behind schedule we may fall before giving up on catching up, e.g. after a long GC pause
+    private static final long MAX_LAG_NANOS = 5 * FRAME_NANOS;
+
+    private final Chip8 chip;
+    private final FrameExchange frames;
+    private final Runnable frameListener; // run at the end of every frame, on the emulation thread
+
+    private Profiler profiler; // told about every frame while profiling, owned by the emulation thread
+
+    private volatile boolean turbo;
+    private volatile int frameSkip = 1; // in turbo mode, present every Nth frame
+
+    private long deadline; // when the next paced frame is due
+    private long frame; // frames run so far
+
+    MainTimer(Chip8 chip, FrameExchange frames, Runnable frameListener) {
+        this.chip = chip;
+        this.frames = frames;
+        this.frameListener = frameListener;
+
+        resync();
+    }
+
+    /**
+     * Runs one frame of emulation, then in paced mode waits until the next frame is due.
+     */
+    void runFrame() throws UnknownOpcodeException {
+        chip.runFrame();
+        endFrame();
+
+        boolean present = !turbo || frame % frameSkip == 0;
+
+        // If the draw flag is set, hand the screen over to the UI
+        if (present && chip.drawFlag) {
+            chip.drawFlag = false;
+            frames.publish(chip.graphics, chip.screenWidth(), chip.screenHeight(), chip.takeDirtyRows());
+        }
+
+        if (!turbo) {
+            if (chip.isIdle()) {
+                sleepWhileIdle();
+            } else {
+                awaitDeadline();
+            }
+        }
+    }
+
+    /**
+     * Schedules the next frame from now, to be called when resuming after a pause.
+     */
+    void resync() {
+        deadline = System.nanoTime() + FRAME_NANOS;
+    }
+
+    /**
+     * Switches between paced 60 Hz frames and running uncapped.
+     * @param frameSkip in turbo mode, present only every Nth frame
+     */
+    void setTurbo(boolean turbo, int frameSkip) {
+        this.frameSkip = Math.max(1, frameSkip);
+        this.turbo = turbo;
+    }
+
+    boolean isTurbo() {
+        return turbo;
+    }
+
+    /**
+     * Sets the profiler to report the end of every frame to, or null. Only to be called from the emulation thread.
+     */
+    void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Parks until the frame in which the machine may leave its idle loop is due, or until unparked, then runs the
+     * frames that passed in the meantime. Those cost next to nothing, as the machine skips its idle loops.
+     */
+    private void sleepWhileIdle() throws UnknownOpcodeException {
+        long idleFrames = chip.wakeFrame() - chip.frame();
+
+        if (idleFrames > Long.MAX_VALUE / FRAME_NANOS) {
+            LockSupport.park(this); // only a key press or a reset gets the machine going again
+        } else {
+            long wake = deadline + (idleFrames - 1) * FRAME_NANOS;
+            long remaining = wake - System.nanoTime();
+
+            if (remaining > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+        }
+
+        // catch up on the frames that passed, up to the one that is due next
+        long passed = (System.nanoTime() - deadline) / FRAME_NANOS;
+
+        for (long i = 0; i < passed && chip.isIdle(); i++) {
+            chip.runFrame();
+            endFrame();
+            deadline += FRAME_NANOS;
+        }
+
+        awaitDeadline();
+    }
+
+    private void endFrame() {
+        frame++;
+
+        if (profiler != null) {
+            profiler.endFrame(chip);
+        }
+
+        frameListener.run();
+    }
+
+    private void awaitDeadline() {
+        long remaining;
+
+        // parkNanos may return early, so park again for whatever is left
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+
+        deadline += FRAME_NANOS;
+
+        if (-remaining > MAX_LAG_NANOS) {
+            resync(); // too far behind to catch up, drop the missed frames
+        }
     }
 }
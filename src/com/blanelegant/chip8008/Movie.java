@@ -0,0 +1,213 @@
+package com.blanelegant.chip8008;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Input movie: everything needed to play a ROM again exactly as it was played once. Since the machine is
+ * deterministic given its ROM, instructions per frame and random seed, a movie only has to hold those plus every
+ * change of the keypad, timestamped by the cycle it took effect at, and the frame follows from the cycle. Hashes of
+ * the screen taken at marked cycles along the way let a replay check it still ends up where the recording did.
+ *
+ * Layout, big endian, cycles stored as unsigned LEB128 varints counting from the previous entry of their list:
+ * <pre>
+ *  int     magic "C8MV"
+ *  short   version
+ *  short   cycles per frame
+ *  long    random seed
+ *  short   ROM length, followed by the ROM
+ *  int     number of key changes, followed by each as
+ *            varint  cycle
+ *            short   keypad, bit n set while key n is down
+ *  int     number of checkpoints, followed by each as
+ *            varint  cycle
+ *            long    screen hash, as {@link Chip8#screenHash()}
+ * </pre>
+ * A minute of typical play comes to a few hundred bytes on top of the ROM.
+ */
+final class Movie {
+
+    static final int MAGIC = 0x43384D56; // "C8MV"
+    static final short VERSION = 1;
+
+    final byte[] rom;
+    final int cyclesPerFrame;
+    final long seed;
+
+    // key changes and checkpoints, in cycle order
+    long[] keyCycles = new long[64];
+    int[] keyMasks = new int[64];
+    int keyChanges;
+
+    long[] checkpointCycles = new long[64];
+    long[] checkpointHashes = new long[64];
+    int checkpoints;
+
+    Movie(byte[] rom, int cyclesPerFrame, long seed) {
+        this.rom = rom;
+        this.cyclesPerFrame = cyclesPerFrame;
+        this.seed = seed;
+    }
+
+    /**
+     * Sets up a machine to replay the movie from its start, leaving the block cache and recompiler as they are.
+     */
+    void start(Chip8 chip) {
+        chip.reset(new RomImage(rom));
+        chip.setCyclesPerFrame(cyclesPerFrame);
+        chip.setSeed(seed);
+    }
+
+    /**
+     * Records the keypad as set at the given cycle, unless it is the same as before.
+     */
+    void addKeys(long cycle, int mask) {
+        if (mask == (keyChanges == 0 ? 0 : keyMasks[keyChanges - 1])) {
+            return;
+        }
+
+        if (keyChanges == keyCycles.length) {
+            keyCycles = Arrays.copyOf(keyCycles, keyChanges * 2);
+            keyMasks = Arrays.copyOf(keyMasks, keyChanges * 2);
+        }
+
+        keyCycles[keyChanges] = cycle;
+        keyMasks[keyChanges++] = mask;
+    }
+
+    /**
+     * Records the hash of the screen as it is at the given cycle.
+     */
+    void addCheckpoint(long cycle, long hash) {
+        if (checkpoints == checkpointCycles.length) {
+            checkpointCycles = Arrays.copyOf(checkpointCycles, checkpoints * 2);
+            checkpointHashes = Arrays.copyOf(checkpointHashes, checkpoints * 2);
+        }
+
+        checkpointCycles[checkpoints] = cycle;
+        checkpointHashes[checkpoints++] = hash;
+    }
+
+    /**
+     * Forgets everything after the given cycle, for when play has been rewound to it. A key change at that very
+     * cycle is dropped too, as keys are set before the cycle's instruction runs.
+     */
+    void truncate(long cycle) {
+        while (keyChanges > 0 && keyCycles[keyChanges - 1] >= cycle) {
+            keyChanges--;
+        }
+        while (checkpoints > 0 && checkpointCycles[checkpoints - 1] > cycle) {
+            checkpoints--;
+        }
+    }
+
+    /**
+     * Cycle of the last key change or checkpoint, where a replay ends.
+     */
+    long length() {
+        return Math.max(keyChanges == 0 ? 0 : keyCycles[keyChanges - 1],
+                checkpoints == 0 ? 0 : checkpointCycles[checkpoints - 1]);
+    }
+
+    void write(Path file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(rom.length + 64 + keyChanges * 4 + checkpoints * 12);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(cyclesPerFrame);
+        out.writeLong(seed);
+        out.writeShort(rom.length);
+        out.write(rom);
+
+        out.writeInt(keyChanges);
+        long cycle = 0;
+        for (int i = 0; i < keyChanges; i++) {
+            writeVarint(out, keyCycles[i] - cycle);
+            out.writeShort(keyMasks[i]);
+            cycle = keyCycles[i];
+        }
+
+        out.writeInt(checkpoints);
+        cycle = 0;
+        for (int i = 0; i < checkpoints; i++) {
+            writeVarint(out, checkpointCycles[i] - cycle);
+            out.writeLong(checkpointHashes[i]);
+            cycle = checkpointCycles[i];
+        }
+
+        Files.write(file, bytes.toByteArray());
+    }
+
+    /**
+     * Reads a movie.
+     * @throws IOException if the file can't be read or isn't a movie of a known version
+     */
+    static Movie read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                throw new IOException(file + " is not a version " + VERSION + " movie");
+            }
+
+            int cyclesPerFrame = in.readUnsignedShort();
+            long seed = in.readLong();
+            byte[] rom = new byte[in.readUnsignedShort()];
+            in.readFully(rom);
+
+            if (cyclesPerFrame == 0 || rom.length > RomImage.MAX_XO_SIZE) {
+                throw new IOException(file + " is corrupt");
+            }
+
+            Movie movie = new Movie(rom, cyclesPerFrame, seed);
+
+            int keyChanges = in.readInt();
+            long cycle = 0;
+            for (int i = 0; i < keyChanges; i++) {
+                cycle += readVarint(in);
+                movie.addKeys(cycle, in.readUnsignedShort());
+            }
+
+            int checkpoints = in.readInt();
+            cycle = 0;
+            for (int i = 0; i < checkpoints; i++) {
+                cycle += readVarint(in);
+                movie.addCheckpoint(cycle, in.readLong());
+            }
+
+            return movie;
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Varint too long");
+    }
+}
@@ -0,0 +1,226 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+/**
+ * Headless replay of input movies recorded by the {@link Emulator}, as regression tests. Every movie is played back
+ * at uncapped speed on its own {@link Chip8} through the block cache and the recompiler, running straight from one
+ * key change or checkpoint to the next, and fails at the first checkpoint whose screen hash differs from the one
+ * recorded. Movies are spread over a work-stealing pool across all cores and reported on one tab separated line each:
+ * movie, status, cycles replayed, checkpoints verified and the error that stopped it, if any.
+ *
+ * Usage: MoviePlayer [--threads N] [--interpret] MOVIE|DIRECTORY...
+ */
+public final class MoviePlayer {
+
+    enum Status { OK, MISMATCH, UNKNOWN_OPCODE, CRASH, UNREADABLE }
+
+    /**
+     * Outcome of replaying a single movie.
+     */
+    static final class Result {
+        final Path movie;
+        Status status = Status.OK;
+        long cycles;
+        int checkpoints; // verified
+        String error;
+
+        Result(Path movie) {
+            this.movie = movie;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s\t%s\t%d\t%d\t%s", movie, status, cycles, checkpoints, error == null ? "" : error);
+        }
+    }
+
+    /**
+     * Replays a range of movies, splitting it in halves for idle workers to steal down to single movies.
+     */
+    private static final class Batch extends RecursiveAction {
+        private final Path[] movies;
+        private final Result[] results;
+        private final int from;
+        private final int to;
+        private final BlockCompiler recompiler;
+
+        Batch(Path[] movies, Result[] results, int from, int to, BlockCompiler recompiler) {
+            this.movies = movies;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.recompiler = recompiler;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                results[from] = replay(movies[from], recompiler);
+            } else if (to > from) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Batch(movies, results, from, middle, recompiler),
+                        new Batch(movies, results, middle, to, recompiler));
+            }
+        }
+    }
+
+    private MoviePlayer() {
+
+    }
+
+    /**
+     * Replays every movie on a pool of the given number of threads, sharing one recompiler unless interpreting.
+     * @return the results, in the order of the given movies
+     */
+    static Result[] replayAll(Path[] movies, int threads, boolean interpret) {
+        Result[] results = new Result[movies.length];
+        BlockCompiler recompiler = interpret ? null : new BlockCompiler();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try {
+            pool.invoke(new Batch(movies, results, 0, movies.length, recompiler));
+        } finally {
+            pool.shutdown();
+        }
+
+        return results;
+    }
+
+    static Result replay(Path file, BlockCompiler recompiler) {
+        Result result = new Result(file);
+        Movie movie;
+
+        try {
+            movie = Movie.read(file);
+        } catch (IOException e) {
+            result.status = Status.UNREADABLE;
+            result.error = e.toString();
+            return result;
+        }
+
+        Chip8 chip = new Chip8();
+        chip.initialize();
+        chip.setRecompiler(recompiler);
+
+        replay(movie, chip, result);
+        return result;
+    }
+
+    /**
+     * Replays a movie on the given machine, filling in the result.
+     */
+    static void replay(Movie movie, Chip8 chip, Result result) {
+        movie.start(chip);
+
+        int key = 0;
+        int checkpoint = 0;
+
+        try {
+            while (key < movie.keyChanges || checkpoint < movie.checkpoints) {
+                long keyCycle = key < movie.keyChanges ? movie.keyCycles[key] : Long.MAX_VALUE;
+                long checkpointCycle = checkpoint < movie.checkpoints ? movie.checkpointCycles[checkpoint] : Long.MAX_VALUE;
+
+                // keys are set before their cycle's instruction runs, checkpoints look at the screen after it
+                runTo(chip, Math.min(keyCycle, checkpointCycle));
+
+                if (checkpointCycle <= keyCycle) {
+                    if (chip.screenHash() != movie.checkpointHashes[checkpoint]) {
+                        result.status = Status.MISMATCH;
+                        result.error = String.format("screen differs at frame %d (cycle %d)",
+                                chip.frame(), chip.cycles);
+                        break;
+                    }
+                    checkpoint++;
+                } else {
+                    chip.setKeys(movie.keyMasks[key++]);
+                }
+            }
+        } catch (UnknownOpcodeException e) {
+            result.status = Status.UNKNOWN_OPCODE;
+            result.error = e.getMessage();
+        } catch (RuntimeException e) {
+            // e.g. a stack under- or overflow, or running off the end of memory
+            result.status = Status.CRASH;
+            result.error = e.toString();
+        }
+
+        result.cycles = chip.cycles;
+        result.checkpoints = checkpoint;
+    }
+
+    /**
+     * Runs the machine up to the given cycle, in as few runs as it takes.
+     */
+    private static void runTo(Chip8 chip, long cycle) throws UnknownOpcodeException {
+        while (chip.cycles < cycle) {
+            chip.run((int) Math.min(cycle - chip.cycles, Integer.MAX_VALUE));
+        }
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean interpret = false;
+        List<Path> movies = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--interpret":
+                        interpret = true;
+                        break;
+                    default:
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+
+                        Path path = Paths.get(args[i]);
+                        if (Files.isDirectory(path)) {
+                            try (Stream<Path> files = Files.walk(path)) {
+                                files.filter(Files::isRegularFile).sorted().forEach(movies::add);
+                            }
+                        } else {
+                            movies.add(path);
+                        }
+                }
+            }
+
+            if (movies.isEmpty() || threads < 1) {
+                throw new IllegalArgumentException("Missing or invalid arguments");
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: MoviePlayer [--threads N] [--interpret] MOVIE|DIRECTORY...");
+            System.exit(2);
+            return;
+        }
+
+        long start = System.nanoTime();
+        Result[] results = replayAll(movies.toArray(new Path[0]), threads, interpret);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int failed = 0;
+        for (Result result : results) {
+            System.out.println(result);
+
+            if (result.status != Status.OK) {
+                failed++;
+            }
+        }
+
+        System.err.printf("%d movies, %d failed, %.2f s%n", results.length, failed, seconds);
+
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,316 @@
+package com.blanelegant.chip8008;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Execution profiler counting instructions per opcode family, per address and per basic block, along with
+ * instructions and frames per second. Counts are published through JMX and every frame as a JFR event.
+ *
+ * The profiler works by swapping the machine's dispatch table for one whose instructions count themselves before
+ * handing over to the table they replaced, so a machine without a profiler runs exactly as before. While attached,
+ * the machine interprets one instruction at a time; the block cache and the recompiler are bypassed.
+ *
+ * Counting happens on the emulation thread, JMX reads the counts as they are without synchronizing.
+ */
+final class Profiler implements ProfilerMXBean, Instruction.Handler {
+
+    static final String OBJECT_NAME = "com.blanelegant.chip8008:type=Profiler";
+
+    // number of entries in the hot address and hot block lists
+    static final int HOT_ENTRIES = 20;
+
+    /**
+     * One frame of emulation as seen by the profiler.
+     */
+    @Name("com.blanelegant.chip8008.Frame")
+    @Label("CHIP-8 Frame")
+    @Category("CHIP-8")
+    @Description("One 60 Hz frame of emulation")
+    static final class FrameEvent extends Event {
+        @Label("Frame")
+        long frame;
+
+        @Label("Cycles")
+        @Description("Instructions executed in the frame")
+        long cycles;
+
+        @Label("Draws")
+        @Description("Sprites drawn and screens cleared in the frame")
+        int draws;
+
+        @Label("Key Waits")
+        @Description("FX0A instructions executed in the frame")
+        int keyWaits;
+
+        @Label("Idle")
+        @Description("Whether the frame ended in an idle loop")
+        boolean idle;
+    }
+
+    // the opcode families and the family of every opcode, as indices into them
+    private static final String[] FAMILIES;
+    private static final byte[] FAMILY_OF = new byte[0x10000];
+
+    static {
+        Map<String, Integer> families = new LinkedHashMap<>();
+
+        for (int opcode = 0; opcode < FAMILY_OF.length; opcode++) {
+            String name = InstructionTable.TABLE[opcode].name;
+            Integer family = families.computeIfAbsent(name, key -> families.size());
+            FAMILY_OF[opcode] = family.byteValue();
+        }
+
+        FAMILIES = families.keySet().toArray(new String[0]);
+    }
+
+    private static final byte CLEAR = FAMILY_OF[0x00E0];
+    private static final byte DRAW = FAMILY_OF[0xD000];
+    private static final byte KEY_WAIT = FAMILY_OF[0xF00A];
+
+    private final Instruction[] table = new Instruction[0x10000];
+    private Instruction[] inner; // the table this profiler's replaced, executing the instructions
+
+    // counts since the last reset
+    private final long[] families = new long[FAMILIES.length];
+    private final long[] addresses = new long[Chip8.XO_MEMORY_SIZE];
+    private final long[] blocks = new long[Chip8.XO_MEMORY_SIZE];
+    private boolean blockStart = true; // whether the next instruction starts a basic block
+
+    // counts of the current frame
+    private int draws;
+    private int keyWaits;
+    private long frameStartCycles;
+    private FrameEvent event;
+
+    private volatile long cycles;
+    private volatile long frames;
+    private volatile double instructionsPerSecond;
+    private volatile double framesPerSecond;
+    private volatile boolean resetRequested;
+
+    // start of the current rate measurement window
+    private long windowStart = System.nanoTime();
+    private long windowCycles;
+    private long windowFrames;
+
+    Profiler() {
+        for (int opcode = 0; opcode < table.length; opcode++) {
+            Instruction instruction = InstructionTable.TABLE[opcode];
+            table[opcode] = new Instruction(instruction.opcode, instruction.name, this, instruction.flags);
+        }
+    }
+
+    /**
+     * Starts profiling the machine. Only to be called from the thread running it.
+     */
+    void attach(Chip8 chip) {
+        inner = chip.dispatch;
+        chip.dispatch = table;
+
+        frameStartCycles = chip.cycles;
+        blockStart = true;
+        event = new FrameEvent();
+        event.begin();
+    }
+
+    /**
+     * Stops profiling the machine, putting back the dispatch table found when attaching.
+     */
+    void detach(Chip8 chip) {
+        chip.dispatch = inner;
+    }
+
+    /**
+     * Counts and executes an instruction dispatched through the profiler's table.
+     */
+    @Override
+    public void execute(Chip8 chip, Instruction instruction) throws UnknownOpcodeException {
+        int address = (chip.program_counter - 2) & 0xFFFF; // the program counter has already moved on
+
+        byte family = FAMILY_OF[instruction.opcode];
+
+        families[family]++;
+        addresses[address]++;
+
+        if (blockStart) {
+            blocks[address]++;
+        }
+        blockStart = instruction.endsBlock();
+
+        if (family == DRAW || family == CLEAR) {
+            draws++;
+        } else if (family == KEY_WAIT) {
+            keyWaits++;
+        }
+
+        Instruction target = inner[instruction.opcode];
+        target.handler.execute(chip, target);
+    }
+
+    /**
+     * Closes the frame that just ran, committing its JFR event and updating the rates. To be called on the
+     * emulation thread after every frame.
+     */
+    void endFrame(Chip8 chip) {
+        long frameCycles = chip.cycles - frameStartCycles;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.frame = chip.frame();
+            event.cycles = frameCycles;
+            event.draws = draws;
+            event.keyWaits = keyWaits;
+            event.idle = chip.isIdle();
+            event.commit();
+        }
+
+        if (resetRequested) {
+            resetRequested = false;
+            clear();
+        }
+
+        frameStartCycles = chip.cycles;
+        draws = 0;
+        keyWaits = 0;
+        cycles += frameCycles;
+        frames++;
+
+        // rates are measured over windows of about a second
+        long now = System.nanoTime();
+        if (now - windowStart >= 1_000_000_000L) {
+            double seconds = (now - windowStart) / 1e9;
+
+            instructionsPerSecond = (cycles - windowCycles) / seconds;
+            framesPerSecond = (frames - windowFrames) / seconds;
+
+            windowStart = now;
+            windowCycles = cycles;
+            windowFrames = frames;
+        }
+
+        event = new FrameEvent();
+        event.begin();
+    }
+
+    /**
+     * Registers the profiler with the platform MBean server, replacing one registered before.
+     */
+    void register() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void clear() {
+        Arrays.fill(families, 0);
+        Arrays.fill(addresses, 0);
+        Arrays.fill(blocks, 0);
+
+        cycles = 0;
+        frames = 0;
+        windowCycles = 0;
+        windowFrames = 0;
+    }
+
+    @Override
+    public long getCycles() {
+        return cycles;
+    }
+
+    @Override
+    public long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public double getInstructionsPerSecond() {
+        return instructionsPerSecond;
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    @Override
+    public Map<String, Long> getOpcodeCounts() {
+        Map<String, Long> counts = new HashMap<>();
+
+        for (int family = 0; family < families.length; family++) {
+            if (families[family] != 0) {
+                counts.put(FAMILIES[family], families[family]);
+            }
+        }
+
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getHotAddresses() {
+        return hottest(addresses);
+    }
+
+    @Override
+    public Map<String, Long> getHotBlocks() {
+        return hottest(blocks);
+    }
+
+    @Override
+    public void reset() {
+        resetRequested = true;
+    }
+
+    /**
+     * The addresses with the highest counts, hottest first.
+     */
+    private static Map<String, Long> hottest(long[] counts) {
+        Map<String, Long> hot = new LinkedHashMap<>();
+        boolean[] taken = new boolean[counts.length];
+
+        for (int i = 0; i < HOT_ENTRIES; i++) {
+            int best = -1;
+
+            for (int address = 0; address < counts.length; address++) {
+                if (!taken[address] && counts[address] != 0 && (best < 0 || counts[address] > counts[best])) {
+                    best = address;
+                }
+            }
+
+            if (best < 0) {
+                break;
+            }
+
+            taken[best] = true;
+            hot.put(String.format("%03X", best), counts[best]);
+        }
+
+        return hot;
+    }
+}
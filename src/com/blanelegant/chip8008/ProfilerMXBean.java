@@ -0,0 +1,37 @@
+package com.blanelegant.chip8008;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link Profiler}, registered as com.blanelegant.chip8008:type=Profiler.
+ */
+public interface ProfilerMXBean {
+
+    long getCycles();
+
+    long getFrames();
+
+    double getInstructionsPerSecond();
+
+    double getFramesPerSecond();
+
+    /**
+     * Executions per opcode family, e.g. 8XY4, of the instructions seen so far.
+     */
+    Map<String, Long> getOpcodeCounts();
+
+    /**
+     * Executions of the most executed addresses, keyed by address in hex.
+     */
+    Map<String, Long> getHotAddresses();
+
+    /**
+     * Entries into the most entered basic blocks, keyed by start address in hex.
+     */
+    Map<String, Long> getHotBlocks();
+
+    /**
+     * Clears the counts, before the next frame.
+     */
+    void reset();
+}
@@ -0,0 +1,276 @@
+package com.blanelegant.chip8008;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bounded history of machine states for stepping back in time, recorded once per frame.
+ *
+ * Every entry holds the XOR of a frame's {@link SaveState} snapshot with the one before, run-length encoded so the
+ * unchanged bytes, usually nearly all of them, cost next to nothing. Only the newest state is kept in full, stepping
+ * back XORs the deltas into it one by one. Every so many frames an entry also holds a keyframe, a full encoded
+ * snapshot, so stepping back far starts from the nearest keyframe instead of undoing every delta on the way.
+ *
+ * Entries are packed into a fixed size byte arena used as a ring; the oldest entries make room for new ones. All the
+ * snapshots held have the same size; recording a machine whose memory changed size starts the history over.
+ */
+final class RewindBuffer {
+
+    // encoded entries are at most this much larger than a snapshot, for alternating runs of single bytes
+    private static final int MAX_ENCODED = SaveState.MAX_SIZE + SaveState.MAX_SIZE / 2 + 16;
+
+    private final byte[] arena;
+    private final int keyframeInterval;
+
+    // per entry, in a ring indexed from oldest
+    private final int[] start;
+    private final int[] deltaLength;
+    private final int[] keyLength; // 0 unless the entry holds a keyframe after its delta
+
+    private int oldest; // ring index of the oldest entry
+    private int count; // entries held, the newest frame and every one that can be stepped back to
+    private int write; // arena offset for the next entry
+    private long recorded; // frames recorded so far, drives the keyframe schedule
+
+    private int size; // of the snapshots held
+    private byte[] current = new byte[0]; // the newest state, in full
+    private byte[] next = new byte[0];
+    private final byte[] scratch = new byte[2 * MAX_ENCODED]; // a delta and a keyframe
+
+    /**
+     * @param maxFrames most frames kept, e.g. 60 per second of history
+     * @param capacity bytes to keep them in
+     * @param keyframeInterval frames between keyframes
+     */
+    RewindBuffer(int maxFrames, int capacity, int keyframeInterval) {
+        if (capacity < 2 * MAX_ENCODED) {
+            throw new IllegalArgumentException("Rewind capacity below " + 2 * MAX_ENCODED + " bytes");
+        }
+
+        arena = new byte[capacity];
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+
+        start = new int[maxFrames];
+        deltaLength = new int[maxFrames];
+        keyLength = new int[maxFrames];
+    }
+
+    /**
+     * Records the current state of the machine as the newest frame.
+     */
+    void record(Chip8 chip) {
+        if (SaveState.size(chip) != size) {
+            clear();
+            size = SaveState.size(chip);
+            current = new byte[size];
+            next = new byte[size];
+        }
+
+        SaveState.save(chip, ByteBuffer.wrap(next), 0);
+
+        // the delta turns this frame back into the previous one, the very first frame has nothing to go back to
+        int delta = count == 0 ? 0 : encode(current, next, scratch, 0);
+        int key = count == 0 || recorded % keyframeInterval == 0 ? encode(null, next, scratch, delta) : 0;
+
+        int offset = allocate(delta + key);
+        System.arraycopy(scratch, 0, arena, offset, delta + key);
+
+        if (count == start.length) {
+            evictOldest();
+        }
+
+        int entry = (oldest + count++) % start.length;
+        start[entry] = offset;
+        deltaLength[entry] = delta;
+        keyLength[entry] = key;
+
+        write = offset + delta + key;
+        recorded++;
+
+        System.arraycopy(next, 0, current, 0, size);
+    }
+
+    /**
+     * Number of frames that can be stepped back.
+     */
+    int available() {
+        return Math.max(0, count - 1);
+    }
+
+    /**
+     * Puts the machine back into the state it was in the given number of recorded frames ago, as far back as
+     * available, and forgets the frames after it.
+     * @return the number of frames actually stepped back
+     */
+    int rewind(Chip8 chip, int frames) {
+        frames = Math.min(frames, available());
+
+        if (frames <= 0) {
+            return 0;
+        }
+
+        int target = count - 1 - frames; // position of the frame to go back to, counted from the oldest
+
+        // a keyframe at or shortly after the target saves undoing the deltas from the newest frame down
+        int from = count - 1;
+        for (int position = target; position < from; position++) {
+            int entry = entry(position);
+
+            if (keyLength[entry] != 0) {
+                Arrays.fill(current, (byte) 0);
+                decode(arena, start[entry] + deltaLength[entry], current);
+                from = position;
+                break;
+            }
+        }
+
+        for (int position = from; position > target; position--) {
+            int entry = entry(position);
+            decode(arena, start[entry], current);
+        }
+
+        count = target + 1;
+
+        int newest = entry(target);
+        write = start[newest] + deltaLength[newest] + keyLength[newest];
+        recorded -= frames;
+
+        SaveState.restore(chip, ByteBuffer.wrap(current), 0);
+        return frames;
+    }
+
+    /**
+     * Forgets all history, e.g. when a new ROM is loaded.
+     */
+    void clear() {
+        oldest = 0;
+        count = 0;
+        write = 0;
+        recorded = 0;
+    }
+
+    /**
+     * Bytes of the arena taken up by the history.
+     */
+    int bytesUsed() {
+        if (count == 0) {
+            return 0;
+        }
+
+        int used = write - start[oldest];
+        return used > 0 ? used : used + arena.length;
+    }
+
+    private int entry(int position) {
+        return (oldest + position) % start.length;
+    }
+
+    /**
+     * Finds room for an entry of the given length after the newest one, evicting the oldest entries as needed.
+     */
+    private int allocate(int length) {
+        while (count > 0) {
+            int tail = start[oldest];
+
+            if (write > tail) {
+                // free space runs from the write offset to the end, and from the start up to the oldest entry
+                if (arena.length - write >= length) {
+                    return write;
+                }
+                if (tail >= length) {
+                    return 0;
+                }
+            } else if (write < tail && tail - write >= length) {
+                return write;
+            }
+
+            evictOldest();
+        }
+
+        return 0;
+    }
+
+    private void evictOldest() {
+        oldest = (oldest + 1) % start.length;
+        count--;
+    }
+
+    /**
+     * Run-length encodes the XOR of two snapshots as pairs of a count of zero bytes and a count of literal bytes,
+     * both as varints, the latter followed by the literal bytes.
+     * @param previous snapshot to XOR against, or null to encode the snapshot itself
+     * @return the length of the encoding
+     */
+    private static int encode(byte[] previous, byte[] state, byte[] out, int offset) {
+        int position = offset;
+        int i = 0;
+
+        while (i < state.length) {
+            int zeros = i;
+            while (i < state.length && xor(previous, state, i) == 0) {
+                i++;
+            }
+            zeros = i - zeros;
+
+            int literals = i;
+            while (i < state.length && xor(previous, state, i) != 0) {
+                i++;
+            }
+
+            position = putVarint(out, position, zeros);
+            position = putVarint(out, position, i - literals);
+
+            for (int j = literals; j < i; j++) {
+                out[position++] = xor(previous, state, j);
+            }
+        }
+
+        return position - offset;
+    }
+
+    /**
+     * XORs an encoding made by {@link #encode} into a snapshot.
+     */
+    private static void decode(byte[] in, int position, byte[] state) {
+        int i = 0;
+
+        while (i < state.length) {
+            int zeros = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in[position++];
+                zeros |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+
+            int literals = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in[position++];
+                literals |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+
+            i += zeros;
+            for (int end = i + literals; i < end; i++) {
+                state[i] ^= in[position++];
+            }
+        }
+    }
+
+    private static byte xor(byte[] previous, byte[] state, int i) {
+        return previous == null ? state[i] : (byte) (previous[i] ^ state[i]);
+    }
+
+    private static int putVarint(byte[] out, int position, int value) {
+        while (value >= 0x80) {
+            out[position++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+
+        out[position++] = (byte) value;
+        return position;
+    }
+}
@@ -0,0 +1,288 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless runner for a whole directory of ROMs, without JavaFX or Swing. Every ROM gets its own {@link Chip8}, run
+ * for a fixed number of cycles on a work-stealing pool across all cores, and is reported on one tab separated line:
+ * ROM, status, cycles run, a hash of the final screen, the number of distinct opcodes executed, the instructions
+ * covered and the error that stopped it, if any.
+ *
+ * Usage: RomFarm [--cycles N] [--cycles-per-frame N] [--seed N] [--input FILE] [--threads N] DIRECTORY
+ *
+ * An input script holds one "frame keymask" pair per line, the mask in hex with bit n set while key n is held down,
+ * taking effect at the start of that frame; blank lines and lines starting with # are ignored.
+ */
+public final class RomFarm {
+
+    static final long DEFAULT_CYCLES = 10_000_000;
+
+    enum Status { OK, UNREADABLE, UNKNOWN_OPCODE, CRASH }
+
+    /**
+     * Parameters every ROM is run with.
+     */
+    static final class Options {
+        long cycles = DEFAULT_CYCLES;
+        int cyclesPerFrame = Chip8.DEFAULT_CYCLES_PER_FRAME;
+        long seed;
+        InputScript input = InputScript.NONE;
+        int threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Keypad states to switch to at given frames, in frame order.
+     */
+    static final class InputScript {
+        static final InputScript NONE = new InputScript(new long[0], new int[0]);
+
+        final long[] frames;
+        final int[] masks;
+
+        InputScript(long[] frames, int[] masks) {
+            this.frames = frames;
+            this.masks = masks;
+        }
+
+        static InputScript parse(Path file) throws IOException {
+            List<long[]> events = new ArrayList<>();
+
+            for (String line : Files.readAllLines(file)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] fields = line.split("\\s+");
+                if (fields.length != 2) {
+                    throw new IOException("Bad input script line: " + line);
+                }
+
+                try {
+                    events.add(new long[] { Long.parseLong(fields[0]), Integer.parseInt(fields[1], 16) & 0xFFFF });
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad input script line: " + line, e);
+                }
+            }
+
+            events.sort((a, b) -> Long.compare(a[0], b[0]));
+
+            long[] frames = new long[events.size()];
+            int[] masks = new int[events.size()];
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = events.get(i)[0];
+                masks[i] = (int) events.get(i)[1];
+            }
+
+            return new InputScript(frames, masks);
+        }
+    }
+
+    /**
+     * Outcome of running a single ROM.
+     */
+    static final class Result {
+        final Path rom;
+        Status status = Status.OK;
+        long cycles;
+        long screenHash;
+        int opcodes; // distinct opcodes executed
+        final TreeSet<String> instructions = new TreeSet<>(); // instructions executed, by name
+        String error;
+
+        Result(Path rom) {
+            this.rom = rom;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s\t%s\t%d\t%016x\t%d\t%s\t%s", rom, status, cycles, screenHash, opcodes,
+                    String.join(",", instructions), error == null ? "" : error);
+        }
+    }
+
+    /**
+     * Runs a range of ROMs, splitting it in halves for idle workers to steal down to single ROMs.
+     */
+    private static final class Batch extends RecursiveAction {
+        private final Path[] roms;
+        private final Result[] results;
+        private final int from;
+        private final int to;
+        private final Options options;
+
+        Batch(Path[] roms, Result[] results, int from, int to, Options options) {
+            this.roms = roms;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.options = options;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                results[from] = run(roms[from], options);
+            } else if (to > from) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Batch(roms, results, from, middle, options),
+                        new Batch(roms, results, middle, to, options));
+            }
+        }
+    }
+
+    private RomFarm() {
+
+    }
+
+    /**
+     * Runs every ROM on a pool of the configured number of threads.
+     * @return the results, in the order of the given ROMs
+     */
+    static Result[] runAll(Path[] roms, Options options) {
+        Result[] results = new Result[roms.length];
+        ForkJoinPool pool = new ForkJoinPool(options.threads);
+
+        try {
+            pool.invoke(new Batch(roms, results, 0, roms.length, options));
+        } finally {
+            pool.shutdown();
+        }
+
+        return results;
+    }
+
+    /**
+     * Runs a single ROM one instruction at a time, recording every opcode it executes.
+     */
+    static Result run(Path rom, Options options) {
+        Result result = new Result(rom);
+        Chip8 chip = new Chip8();
+        long[] executed = new long[0x10000 / 64]; // bit set of opcodes seen
+
+        try {
+            chip.initialize();
+            chip.setCyclesPerFrame(options.cyclesPerFrame);
+            chip.setSeed(options.seed);
+            chip.load(rom);
+
+            InputScript input = options.input;
+            int event = 0;
+
+            while (chip.cycles < options.cycles) {
+                // keys change on frame boundaries only, as they do when playing
+                while (event < input.frames.length && input.frames[event] <= chip.frame()) {
+                    chip.setKeys(input.masks[event++]);
+                }
+
+                long frameEnd = Math.min(options.cycles, (chip.frame() + 1) * chip.cycles_per_frame);
+
+                while (chip.cycles < frameEnd) {
+                    chip.tick();
+                    executed[chip.current_instruction >>> 6] |= 1L << chip.current_instruction;
+                }
+            }
+        } catch (IOException e) {
+            result.status = Status.UNREADABLE;
+            result.error = e.getMessage();
+        } catch (UnknownOpcodeException e) {
+            result.status = Status.UNKNOWN_OPCODE;
+            result.error = e.getMessage();
+        } catch (RuntimeException e) {
+            // e.g. a stack under- or overflow, or running off the end of memory
+            result.status = Status.CRASH;
+            result.error = e.toString();
+        }
+
+        result.cycles = chip.cycles;
+        result.screenHash = chip.screenHash();
+
+        for (int opcode = 0; opcode < 0x10000; opcode++) {
+            if ((executed[opcode >>> 6] & (1L << opcode)) != 0) {
+                result.opcodes++;
+                result.instructions.add(InstructionTable.TABLE[opcode].name);
+            }
+        }
+
+        return result;
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+        Path directory = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--cycles":
+                        options.cycles = Long.parseLong(args[++i]);
+                        break;
+                    case "--cycles-per-frame":
+                        options.cyclesPerFrame = Integer.parseInt(args[++i]);
+                        break;
+                    case "--seed":
+                        options.seed = Long.parseLong(args[++i]);
+                        break;
+                    case "--input":
+                        options.input = InputScript.parse(Paths.get(args[++i]));
+                        break;
+                    case "--threads":
+                        options.threads = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("--") || directory != null) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        directory = Paths.get(args[i]);
+                }
+            }
+
+            if (directory == null || options.cyclesPerFrame < 1
+                    || options.cyclesPerFrame > Chip8.MAX_CYCLES_PER_FRAME || options.threads < 1) {
+                throw new IllegalArgumentException("Missing or invalid arguments");
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: RomFarm [--cycles N] [--cycles-per-frame N] [--seed N] [--input FILE] "
+                    + "[--threads N] DIRECTORY");
+            System.exit(2);
+            return;
+        }
+
+        Path[] roms;
+        try (Stream<Path> files = Files.walk(directory)) {
+            roms = files.filter(Files::isRegularFile).sorted().toArray(Path[]::new);
+        } catch (IOException e) {
+            System.err.println("Cannot list " + directory + ": " + e);
+            System.exit(1);
+            return;
+        }
+
+        Result[] results = runAll(roms, options);
+
+        int failed = 0;
+        for (Result result : results) {
+            System.out.println(result);
+
+            if (result.status != Status.OK) {
+                failed++;
+            }
+        }
+
+        String covered = Stream.of(results).flatMap(result -> result.instructions.stream())
+                .collect(Collectors.toCollection(TreeSet::new)).toString();
+        System.err.printf("%d ROMs, %d failed, instructions covered: %s%n", roms.length, failed, covered);
+
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,89 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Immutable memory image of a ROM: all of memory as the machine sees it right after loading, the fonts and the ROM
+ * already widened to chars. That is 4 KB, or 64 KB for a ROM found to be written for XO-CHIP. Machines loading the
+ * same image share its memory until they first store into it, at which point {@link Chip8#writeMemory} gives them a
+ * copy of their own.
+ */
+final class RomImage {
+
+    // largest ROM fitting between 0x200 and the end of memory, of CHIP-8 and SUPER-CHIP and of XO-CHIP
+    static final int MAX_SIZE = Chip8.MEMORY_SIZE - 0x200;
+    static final int MAX_XO_SIZE = Chip8.XO_MEMORY_SIZE - 0x200;
+
+    /**
+     * Memory holding nothing but the font, as after a reset.
+     */
+    static final RomImage EMPTY = new RomImage(new byte[0]);
+
+    final char[] memory; // never written
+    final int size; // of the ROM, in bytes
+    final RomLibrary.Variant variant;
+
+    /**
+     * @throws IllegalArgumentException if the ROM doesn't fit in memory
+     */
+    RomImage(byte[] rom) {
+        this(ByteBuffer.wrap(rom));
+    }
+
+    /**
+     * Image of the ROM between the buffer's position and limit, leaving the position alone.
+     * @throws IllegalArgumentException if the ROM doesn't fit in memory
+     */
+    RomImage(ByteBuffer rom) {
+        size = rom.remaining();
+
+        if (size > MAX_XO_SIZE) {
+            throw new IllegalArgumentException("ROM too large: " + size + " bytes, at most " + MAX_XO_SIZE + " fit");
+        }
+
+        variant = RomLibrary.Variant.detect(rom);
+        memory = new char[variant == RomLibrary.Variant.XO_CHIP ? Chip8.XO_MEMORY_SIZE : Chip8.MEMORY_SIZE];
+
+        System.arraycopy(Chip8.FONT_SET, 0, memory, Chip8.FONT_START, Chip8.FONT_SET.length);
+        System.arraycopy(Chip8.BIG_FONT_SET, 0, memory, Chip8.BIG_FONT_START, Chip8.BIG_FONT_SET.length);
+
+        int start = rom.position();
+        for (int i = 0; i < size; i++) {
+            memory[0x200 + i] = (char) (rom.get(start + i) & 0xFF);
+        }
+    }
+
+    /**
+     * Reads a ROM file through a memory mapping.
+     * @throws IOException if the file can't be read or doesn't fit in memory
+     */
+    static RomImage read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size > MAX_XO_SIZE) {
+                throw new IOException(file + " is too large for a CHIP-8 ROM: " + size + " bytes, at most "
+                        + MAX_XO_SIZE + " fit");
+            }
+
+            return new RomImage(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * The ROM's bytes.
+     */
+    byte[] rom() {
+        byte[] rom = new byte[size];
+
+        for (int i = 0; i < size; i++) {
+            rom[i] = (byte) memory[0x200 + i];
+        }
+
+        return rom;
+    }
+}
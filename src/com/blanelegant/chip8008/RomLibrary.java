@@ -0,0 +1,520 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Library of the ROMs under a directory, indexed by content hash. The index lives in a file in the directory and
+ * remembers every ROM's size, modification time, hash, detected platform variant and settings, so opening the library
+ * only maps the index, which is parsed on first use. {@link #refresh} then rescans the directory in parallel, hashing
+ * only files that are new or changed since the index was written. ROMs are read through memory mappings.
+ *
+ * Index layout, big endian:
+ * <pre>
+ *  0  int    magic "C8LI"
+ *  4  short  version
+ *  6  short  record size
+ *  8  int    number of records
+ * 16         records, followed by their paths in UTF-8
+ *
+ * record:  0  long   content hash, 64 bit FNV-1a
+ *          8  long   modification time, milliseconds since the epoch
+ *         16  int    size
+ *         20  byte   variant
+ *         22  short  cycles per frame
+ *         26  int    offset of the path among the paths
+ *         30  short  length of the path
+ * </pre>
+ *
+ * Usage: RomLibrary [--threads N] [--cycles-per-frame ROM N] DIRECTORY
+ *
+ * Refreshes the library and prints its ROMs, one per line: hash, size, variant, cycles per frame and path.
+ */
+public final class RomLibrary {
+
+    static final String INDEX_FILE = ".chip8008-index";
+
+    static final int MAGIC = 0x43384C49; // "C8LI"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 32;
+
+    // largest file taken for a ROM, that of an XO-CHIP program filling its 64 KB
+    static final int MAX_ROM_SIZE = RomImage.MAX_XO_SIZE;
+
+    enum Variant {
+        CHIP_8, SUPER_CHIP, XO_CHIP;
+
+        /**
+         * Guesses the platform a ROM was written for from the instructions it contains. Every aligned pair of bytes is
+         * taken for an instruction, so data may be mistaken for code; that only errs towards a larger variant.
+         */
+        static Variant detect(ByteBuffer rom) {
+            if (rom.remaining() > RomImage.MAX_SIZE) {
+                return XO_CHIP;
+            }
+
+            Variant variant = CHIP_8;
+
+            for (int i = rom.position(); i + 1 < rom.limit(); i += 2) {
+                int opcode = rom.getShort(i) & 0xFFFF;
+
+                if (opcode == 0xF000 || opcode == 0xF002 || (opcode & 0xF0FF) == 0xF001
+                        || (opcode & 0xF00F) == 0x5002 || (opcode & 0xF00F) == 0x5003 || (opcode & 0xFFF0) == 0x00D0) {
+                    return XO_CHIP; // long I, audio, plane selection, register ranges, scrolling up
+                }
+
+                if (opcode == 0x00FB || opcode == 0x00FC || opcode == 0x00FD || opcode == 0x00FE || opcode == 0x00FF
+                        || (opcode & 0xFFF0) == 0x00C0 || (opcode & 0xF0FF) == 0xF030
+                        || (opcode & 0xF0FF) == 0xF075 || (opcode & 0xF0FF) == 0xF085) {
+                    variant = SUPER_CHIP; // scrolling, exit, resolution, large font, flags
+                }
+            }
+
+            return variant;
+        }
+    }
+
+    /**
+     * A ROM in the library.
+     */
+    static final class Entry {
+        final String path; // relative to the library, with / separators
+        final long size;
+        final long modified; // milliseconds since the epoch
+        final long hash;
+        final Variant variant;
+        volatile int cyclesPerFrame;
+
+        Entry(String path, long size, long modified, long hash, Variant variant, int cyclesPerFrame) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.variant = variant;
+            this.cyclesPerFrame = cyclesPerFrame;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x\t%d\t%s\t%d\t%s", hash, size, variant, cyclesPerFrame, path);
+        }
+    }
+
+    /**
+     * Scans a directory, forking a task for every subdirectory and handling its files itself.
+     */
+    private final class Scan extends RecursiveAction {
+        private final Path directory;
+        private final Map<String, Entry> previous;
+        private final Map<Long, Entry> previousByHash;
+        private final Map<String, Entry> found;
+        private final AtomicInteger hashed;
+        private final List<IOException> failures;
+
+        Scan(Path directory, Map<String, Entry> previous, Map<Long, Entry> previousByHash, Map<String, Entry> found,
+             AtomicInteger hashed, List<IOException> failures) {
+            this.directory = directory;
+            this.previous = previous;
+            this.previousByHash = previousByHash;
+            this.found = found;
+            this.hashed = hashed;
+            this.failures = failures;
+        }
+
+        @Override
+        protected void compute() {
+            List<Scan> subdirectories = new ArrayList<>();
+
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    try {
+                        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+                        if (attributes.isDirectory()) {
+                            subdirectories.add(new Scan(file, previous, previousByHash, found, hashed, failures));
+                        } else if (attributes.isRegularFile() && !file.getFileName().toString().equals(INDEX_FILE)
+                                && attributes.size() <= MAX_ROM_SIZE) {
+                            String path = name(root.relativize(file));
+                            long modified = attributes.lastModifiedTime().toMillis();
+                            Entry entry = previous.get(path);
+
+                            if (entry == null || entry.size != attributes.size() || entry.modified != modified) {
+                                entry = scan(file, path, modified, entry);
+                                hashed.incrementAndGet();
+                            }
+
+                            found.put(path, entry);
+                        }
+                    } catch (IOException e) {
+                        failures.add(e); // leave the file out, and carry on with the others
+                    }
+                }
+            } catch (IOException e) {
+                failures.add(e);
+            }
+
+            invokeAll(subdirectories);
+        }
+
+        /**
+         * Hashes a new or changed file, keeping the settings it had under this path or, when moved, under its hash.
+         */
+        private Entry scan(Path file, String path, long modified, Entry before) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                ByteBuffer rom = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                long hash = hash(rom);
+
+                Entry settings = before != null ? before : previousByHash.get(hash);
+                int cyclesPerFrame = settings != null ? settings.cyclesPerFrame : Chip8.DEFAULT_CYCLES_PER_FRAME;
+
+                return new Entry(path, size, modified, hash, Variant.detect(rom), cyclesPerFrame);
+            }
+        }
+    }
+
+    final Path root;
+    private final Path index;
+
+    // the index as read from disk, parsed into entries on first use; null once parsed
+    private ByteBuffer mapped;
+    private int count;
+
+    // by path, swapped whole by refresh
+    private volatile Map<String, Entry> entries;
+
+    private RomLibrary(Path root, ByteBuffer mapped, int count) {
+        this.root = root;
+        this.index = root.resolve(INDEX_FILE);
+        this.mapped = mapped;
+        this.count = count;
+    }
+
+    /**
+     * Opens the library under a directory by mapping its index, if there is one. Nothing is scanned and nothing is
+     * parsed until entries are asked for; the library holds what the index held until refreshed.
+     * @throws IOException if the index can't be read or isn't one of a known version
+     */
+    static RomLibrary open(Path root) throws IOException {
+        Path index = root.resolve(INDEX_FILE);
+
+        if (!Files.exists(index)) {
+            return new RomLibrary(root, null, 0);
+        }
+
+        try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (mapped.limit() < HEADER_SIZE || mapped.getInt(0) != MAGIC || mapped.getShort(4) != VERSION
+                    || mapped.getShort(6) != RECORD_SIZE) {
+                throw new IOException(index + " is not a version " + VERSION + " library index");
+            }
+
+            int count = mapped.getInt(8);
+
+            if (count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE > mapped.limit()) {
+                throw new IOException(index + " is truncated");
+            }
+
+            return new RomLibrary(root, mapped, count);
+        }
+    }
+
+    /**
+     * Number of ROMs in the library, without parsing the index.
+     */
+    int size() {
+        Map<String, Entry> parsed = entries;
+        return parsed != null ? parsed.size() : count;
+    }
+
+    /**
+     * The entries by path, parsed from the index on first use.
+     */
+    private synchronized Map<String, Entry> entryMap() {
+        if (entries != null) {
+            return entries;
+        }
+
+        Map<String, Entry> parsed = new HashMap<>(count * 2);
+        Variant[] variants = Variant.values();
+        int strings = HEADER_SIZE + count * RECORD_SIZE;
+        byte[] name = new byte[256];
+
+        for (int i = 0; i < count; i++) {
+            int record = HEADER_SIZE + i * RECORD_SIZE;
+            int length = mapped.getShort(record + 30) & 0xFFFF;
+
+            if (length > name.length) {
+                name = new byte[length];
+            }
+            mapped.get(strings + mapped.getInt(record + 26), name, 0, length);
+            String path = new String(name, 0, length, StandardCharsets.UTF_8);
+
+            parsed.put(path, new Entry(path, mapped.getInt(record + 16), mapped.getLong(record + 8),
+                    mapped.getLong(record), variants[mapped.get(record + 20)], mapped.getShort(record + 22)));
+        }
+
+        mapped = null; // unmapped once collected
+        entries = parsed;
+        return parsed;
+    }
+
+    /**
+     * Rescans the directory on a pool of the given number of threads, hashing new and changed files and dropping
+     * missing ones, then writes the index.
+     * @return the number of files hashed
+     * @throws IOException if a directory or file couldn't be read, after scanning everything else, or if the index
+     * couldn't be written
+     */
+    int refresh(int threads) throws IOException {
+        Map<String, Entry> previous = entryMap();
+        Map<Long, Entry> previousByHash = new HashMap<>(previous.size() * 2);
+        for (Entry entry : previous.values()) {
+            previousByHash.put(entry.hash, entry);
+        }
+
+        Map<String, Entry> found = new ConcurrentHashMap<>(previous.size() * 2);
+        AtomicInteger hashed = new AtomicInteger();
+        List<IOException> failures = Collections.synchronizedList(new ArrayList<>());
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try {
+            pool.invoke(new Scan(root, previous, previousByHash, found, hashed, failures));
+        } finally {
+            pool.shutdown();
+        }
+
+        entries = new HashMap<>(found);
+        save();
+
+        if (!failures.isEmpty()) {
+            IOException failure = new IOException("Cannot scan " + failures.size() + " files or directories",
+                    failures.get(0));
+            failures.stream().skip(1).forEach(failure::addSuppressed);
+            throw failure;
+        }
+
+        return hashed.get();
+    }
+
+    /**
+     * Writes the index, replacing the previous one only once the new one is complete.
+     */
+    void save() throws IOException {
+        Collection<Entry> all = entryMap().values();
+
+        byte[][] names = new byte[all.size()][];
+        int stringsLength = 0;
+        int i = 0;
+        for (Entry entry : all) {
+            names[i] = entry.path.getBytes(StandardCharsets.UTF_8);
+            stringsLength += names[i++].length;
+        }
+
+        int strings = HEADER_SIZE + all.size() * RECORD_SIZE;
+        ByteBuffer out = ByteBuffer.allocate(strings + stringsLength);
+        out.putInt(0, MAGIC);
+        out.putShort(4, VERSION);
+        out.putShort(6, (short) RECORD_SIZE);
+        out.putInt(8, all.size());
+
+        int record = HEADER_SIZE;
+        int string = 0;
+        i = 0;
+        for (Entry entry : all) {
+            out.putLong(record, entry.hash);
+            out.putLong(record + 8, entry.modified);
+            out.putInt(record + 16, (int) entry.size);
+            out.put(record + 20, (byte) entry.variant.ordinal());
+            out.putShort(record + 22, (short) entry.cyclesPerFrame);
+            out.putInt(record + 26, string);
+            out.putShort(record + 30, (short) names[i].length);
+
+            out.position(strings + string);
+            out.put(names[i]);
+
+            string += names[i++].length;
+            record += RECORD_SIZE;
+        }
+
+        Path temporary = index.resolveSibling(INDEX_FILE + ".tmp");
+        Files.write(temporary, out.array());
+        Files.move(temporary, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The ROMs in the library, in no particular order.
+     */
+    Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entryMap().values());
+    }
+
+    /**
+     * The entry of a file under the library's directory, or null if it isn't indexed.
+     */
+    Entry find(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        Path base = root.toAbsolutePath().normalize();
+
+        return absolute.startsWith(base) ? entryMap().get(name(base.relativize(absolute))) : null;
+    }
+
+    /**
+     * Sets the instructions per frame to run a ROM at, kept in the index from the next save on.
+     */
+    void setCyclesPerFrame(Entry entry, int cyclesPerFrame) {
+        entry.cyclesPerFrame = cyclesPerFrame;
+    }
+
+    /**
+     * Reads a ROM of the library.
+     * @throws IOException if the file can't be read, doesn't fit in memory or changed since it was indexed
+     */
+    RomImage load(Entry entry) throws IOException {
+        Path file = root.resolve(entry.path);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > RomImage.MAX_XO_SIZE) {
+                throw new IOException(entry.path + " is a " + entry.variant + " ROM of " + channel.size()
+                        + " bytes, too large for XO-CHIP memory");
+            }
+
+            ByteBuffer rom = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (hash(rom) != entry.hash) {
+                throw new IOException(entry.path + " changed since the library was scanned");
+            }
+
+            return new RomImage(rom);
+        } catch (NoSuchFileException e) {
+            throw new IOException(entry.path + " is no longer in the library", e);
+        }
+    }
+
+    /**
+     * Name of a file in the index, its path relative to the library's directory with / separators on every platform.
+     */
+    private static String name(Path relative) {
+        StringBuilder name = new StringBuilder();
+
+        for (Path part : relative) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(part);
+        }
+
+        return name.toString();
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the bytes between the buffer's position and limit.
+     */
+    static long hash(ByteBuffer bytes) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = bytes.position(); i < bytes.limit(); i++) {
+            hash ^= bytes.get(i) & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Map<String, Integer> cycleSettings = new TreeMap<>();
+        Path directory = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--cycles-per-frame":
+                        cycleSettings.put(args[++i], Integer.parseInt(args[++i]));
+                        break;
+                    default:
+                        if (args[i].startsWith("--") || directory != null) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        directory = Paths.get(args[i]);
+                }
+            }
+
+            if (directory == null || threads < 1 || cycleSettings.values().stream().anyMatch(n -> n < 1)) {
+                throw new IllegalArgumentException("Missing or invalid arguments");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: RomLibrary [--threads N] [--cycles-per-frame ROM N] DIRECTORY");
+            System.exit(2);
+            return;
+        }
+
+        int status = 0;
+
+        try {
+            long start = System.nanoTime();
+            RomLibrary library = open(directory);
+            long opened = System.nanoTime();
+
+            int hashed = 0;
+            try {
+                hashed = library.refresh(threads);
+            } catch (IOException e) {
+                System.err.println(e.getMessage() + ": " + e.getCause());
+                status = 1;
+            }
+            long refreshed = System.nanoTime();
+
+            for (Map.Entry<String, Integer> setting : cycleSettings.entrySet()) {
+                Entry entry = library.find(directory.resolve(setting.getKey()));
+
+                if (entry == null) {
+                    System.err.println(setting.getKey() + " is not in the library");
+                    status = 1;
+                } else {
+                    library.setCyclesPerFrame(entry, setting.getValue());
+                }
+            }
+            if (!cycleSettings.isEmpty()) {
+                library.save();
+            }
+
+            library.entries().stream().sorted((a, b) -> a.path.compareTo(b.path)).forEach(System.out::println);
+
+            System.err.printf("%d ROMs, index opened in %.1f ms, %d hashed in %.1f ms%n", library.size(),
+                    (opened - start) / 1e6, hashed, (refreshed - opened) / 1e6);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            status = 1;
+        }
+
+        System.exit(status);
+    }
+}
@@ -0,0 +1,261 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Snapshots of the whole machine in a compact, versioned binary layout, one byte per byte of CHIP-8 state. Snapshots
+ * are written to and read from a {@link ByteBuffer} at a given offset, so a single memory-mapped file can hold any
+ * number of them and saving or restoring one never copies through the heap. A snapshot holds all of memory, so its
+ * size depends on the platform the ROM is for, see {@link #size(Chip8)}.
+ *
+ * Layout, big endian:
+ * <pre>
+ *   0  int    magic "C8SS"
+ *   4  short  version
+ *   6  short  cycles per frame, unsigned, from 1 on
+ *   8  long   cycles
+ *  16  long   delay timer expiry frame
+ *  24  long   sound timer expiry frame
+ *  32  short  current instruction
+ *  34  short  index
+ *  36  short  program counter
+ *  38  byte   stack pointer
+ *  39  byte   draw flag
+ *  40  long   random number generator state
+ *  48  short  keypad, bit n set while key n is down
+ *  50  byte   high resolution
+ *  51  byte   selected bitplanes
+ *  52  int    memory size
+ *  56  16     registers V0-VF
+ *  72  32     stack, one short per entry
+ * 104  16     flag registers
+ * 120  16     audio pattern
+ * 136  short  audio pitch
+ * 138  2048   screen, both bitplanes as laid out in {@link Chip8#graphics}
+ * 2186 4096   memory, or 65536 of XO-CHIP
+ * </pre>
+ */
+final class SaveState {
+
+    static final int MAGIC = 0x43385353; // "C8SS"
+    static final short VERSION = 3; // 2 added the random number generator state, 3 SUPER-CHIP and XO-CHIP
+
+    private static final int CYCLES_PER_FRAME = 6;
+    private static final int CYCLES = 8;
+    private static final int DELAY_TIMER = 16;
+    private static final int SOUND_TIMER = 24;
+    private static final int CURRENT_INSTRUCTION = 32;
+    private static final int INDEX = 34;
+    private static final int PROGRAM_COUNTER = 36;
+    private static final int STACK_POINTER = 38;
+    private static final int DRAW_FLAG = 39;
+    private static final int RANDOM_STATE = 40;
+    private static final int KEYPAD = 48;
+    private static final int HIGH_RESOLUTION = 50;
+    private static final int PLANE_MASK = 51;
+    private static final int MEMORY_SIZE = 52;
+    private static final int REGISTERS = 56;
+    private static final int STACK = REGISTERS + 16;
+    private static final int USER_FLAGS = STACK + 16 * 2;
+    private static final int AUDIO_PATTERN = USER_FLAGS + 16;
+    private static final int PITCH = AUDIO_PATTERN + 16;
+    private static final int GRAPHICS = PITCH + 2;
+    private static final int MEMORY = GRAPHICS + Chip8.PLANES * Chip8.PLANE_WORDS * 8;
+
+    /**
+     * Size in bytes of the largest snapshot, that of a machine with XO-CHIP memory.
+     */
+    static final int MAX_SIZE = MEMORY + Chip8.XO_MEMORY_SIZE;
+
+    private SaveState() {
+
+    }
+
+    /**
+     * Size in bytes of a snapshot of the machine.
+     */
+    static int size(Chip8 chip) {
+        return MEMORY + chip.memory.length;
+    }
+
+    /**
+     * Size in bytes of the snapshot in the buffer at the given offset.
+     */
+    static int size(ByteBuffer buffer, int offset) {
+        return MEMORY + buffer.getInt(offset + MEMORY_SIZE);
+    }
+
+    /**
+     * Writes a snapshot of the machine into the buffer at the given offset, leaving its position alone.
+     */
+    static void save(Chip8 chip, ByteBuffer buffer, int offset) {
+        buffer.putInt(offset, MAGIC);
+        buffer.putShort(offset + 4, VERSION);
+        buffer.putShort(offset + CYCLES_PER_FRAME, (short) chip.cycles_per_frame);
+        buffer.putLong(offset + CYCLES, chip.cycles);
+        buffer.putLong(offset + DELAY_TIMER, chip.delay_timer_expiry);
+        buffer.putLong(offset + SOUND_TIMER, chip.sound_timer_expiry);
+        buffer.putShort(offset + CURRENT_INSTRUCTION, (short) chip.current_instruction);
+        buffer.putShort(offset + INDEX, (short) chip.index);
+        buffer.putShort(offset + PROGRAM_COUNTER, (short) chip.program_counter);
+        buffer.put(offset + STACK_POINTER, (byte) chip.stack_pointer);
+        buffer.put(offset + DRAW_FLAG, (byte) (chip.drawFlag ? 1 : 0));
+        buffer.putLong(offset + RANDOM_STATE, chip.random_state);
+
+        int keys = 0;
+        for (int key = 0; key < 16; key++) {
+            keys |= (chip.keypad[key] & 0x1) << key;
+        }
+        buffer.putShort(offset + KEYPAD, (short) keys);
+        buffer.put(offset + HIGH_RESOLUTION, (byte) (chip.high_resolution ? 1 : 0));
+        buffer.put(offset + PLANE_MASK, (byte) chip.plane_mask);
+        buffer.putInt(offset + MEMORY_SIZE, chip.memory.length);
+
+        for (int i = 0; i < 16; i++) {
+            buffer.put(offset + REGISTERS + i, (byte) chip.register[i]);
+            buffer.putShort(offset + STACK + i * 2, (short) chip.stack[i]);
+            buffer.put(offset + USER_FLAGS + i, (byte) chip.user_flags[i]);
+            buffer.put(offset + AUDIO_PATTERN + i, (byte) chip.audio_pattern[i]);
+        }
+        buffer.putShort(offset + PITCH, (short) chip.pitch);
+
+        long[] graphics = chip.graphics;
+        for (int i = 0; i < graphics.length; i++) {
+            buffer.putLong(offset + GRAPHICS + i * 8, graphics[i]);
+        }
+
+        // memory goes eight bytes at a time, far cheaper than one put per byte
+        char[] memory = chip.memory;
+        for (int address = 0; address < memory.length; address += 8) {
+            buffer.putLong(offset + MEMORY + address, pack(memory, address));
+        }
+    }
+
+    /**
+     * Restores the machine from the snapshot in the buffer at the given offset, leaving its position alone. Only
+     * code decoded from memory that actually differs is dropped from the block cache, and the whole screen is
+     * marked for redrawing.
+     * @throws IllegalArgumentException if there is no complete and valid snapshot of this version at the offset
+     */
+    static void restore(Chip8 chip, ByteBuffer buffer, int offset) {
+        if (buffer.getInt(offset) != MAGIC || buffer.getShort(offset + 4) != VERSION) {
+            throw new IllegalArgumentException("No version " + VERSION + " save state at offset " + offset);
+        }
+
+        int memorySize = buffer.getInt(offset + MEMORY_SIZE);
+        if (memorySize != Chip8.MEMORY_SIZE && memorySize != Chip8.XO_MEMORY_SIZE
+                || buffer.limit() < offset + MEMORY + memorySize) {
+            throw new IllegalArgumentException("Truncated save state at offset " + offset);
+        }
+
+        // zero would divide by zero in every timer access
+        int cyclesPerFrame = buffer.getShort(offset + CYCLES_PER_FRAME) & 0xFFFF;
+        if (cyclesPerFrame == 0) {
+            throw new IllegalArgumentException("Invalid cycles per frame in save state at offset " + offset);
+        }
+
+        if (chip.memory == null) {
+            chip.initialize();
+        }
+
+        chip.cycles_per_frame = cyclesPerFrame;
+        chip.cycles = buffer.getLong(offset + CYCLES);
+        chip.delay_timer_expiry = buffer.getLong(offset + DELAY_TIMER);
+        chip.sound_timer_expiry = buffer.getLong(offset + SOUND_TIMER);
+        chip.current_instruction = (char) buffer.getShort(offset + CURRENT_INSTRUCTION);
+        chip.index = (char) buffer.getShort(offset + INDEX);
+        chip.program_counter = (char) buffer.getShort(offset + PROGRAM_COUNTER);
+        chip.stack_pointer = (char) (buffer.get(offset + STACK_POINTER) & 0xFF);
+        chip.drawFlag = buffer.get(offset + DRAW_FLAG) != 0;
+        chip.random_state = buffer.getLong(offset + RANDOM_STATE);
+        chip.setKeys(buffer.getShort(offset + KEYPAD));
+        chip.high_resolution = buffer.get(offset + HIGH_RESOLUTION) != 0;
+        chip.plane_mask = buffer.get(offset + PLANE_MASK);
+
+        for (int i = 0; i < 16; i++) {
+            chip.register[i] = (char) (buffer.get(offset + REGISTERS + i) & 0xFF);
+            chip.stack[i] = (char) buffer.getShort(offset + STACK + i * 2);
+            chip.user_flags[i] = (char) (buffer.get(offset + USER_FLAGS + i) & 0xFF);
+            chip.audio_pattern[i] = (char) (buffer.get(offset + AUDIO_PATTERN + i) & 0xFF);
+        }
+        chip.pitch = (char) buffer.getShort(offset + PITCH);
+
+        long[] graphics = chip.graphics;
+        for (int i = 0; i < graphics.length; i++) {
+            graphics[i] = buffer.getLong(offset + GRAPHICS + i * 8);
+        }
+        chip.dirtyRows = chip.allRows();
+
+        if (chip.memory.length != memorySize) {
+            chip.resizeMemory(memorySize); // a ROM for another platform
+        }
+
+        char[] memory = chip.memory;
+        for (int address = 0; address < memory.length; address += 8) {
+            long bytes = buffer.getLong(offset + MEMORY + address);
+
+            if (bytes == pack(memory, address)) {
+                continue; // usually most of memory is unchanged
+            }
+
+            for (int i = 0; i < 8; i++) {
+                char value = (char) ((bytes >>> (56 - i * 8)) & 0xFF);
+
+                if (memory[address + i] != value) {
+                    chip.writeMemory(address + i, value);
+                }
+            }
+        }
+
+        chip.idle = Chip8.NOT_IDLE;
+    }
+
+    /**
+     * Packs eight bytes of memory into a long, the first one in the most significant byte.
+     */
+    private static long pack(char[] memory, int address) {
+        long bytes = 0;
+
+        for (int i = 0; i < 8; i++) {
+            bytes = (bytes << 8) | memory[address + i];
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Saves a snapshot of the machine to a file of its own, replacing whatever the file held.
+     */
+    static void write(Chip8 chip, Path file) throws IOException {
+        MappedByteBuffer buffer;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(chip));
+        }
+
+        save(chip, buffer, 0);
+        buffer.force();
+    }
+
+    /**
+     * Restores the machine from a file written by {@link #write(Chip8, Path)}.
+     * @throws IOException if the file can't be read or holds no snapshot of this version
+     */
+    static void read(Chip8 chip, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < MEMORY) {
+                throw new IOException(file + " is too short for a save state");
+            }
+
+            restore(chip, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), 0);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + " is not a version " + VERSION + " save state", e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.blanelegant.chip8008;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.nio.IntBuffer;
+
+/**
+ * Draws the CHIP-8 display onto a canvas. Changed rows are uploaded into a native resolution
+ * {@link WritableImage} with one setPixels call per run of dirty rows, which is then scaled onto the whole canvas,
+ * whichever resolution the display is in.
+ */
+final class ScreenRenderer {
+
+    private final GraphicsContext gc;
+
+    private final ArgbFrame frame = new ArgbFrame();
+    private final WritableImage image = new WritableImage(Chip8.HIRES_WIDTH, Chip8.HIRES_HEIGHT);
+    private final PixelFormat<IntBuffer> format = PixelFormat.getIntArgbInstance();
+
+    ScreenRenderer(GraphicsContext gc) {
+        this.gc = gc;
+
+        gc.setImageSmoothing(false); // keep pixels sharp when scaling up
+    }
+
+    /**
+     * Presents the display, doing nothing if no row changed since the last call.
+     * @param rows laid out as in {@link Chip8#graphics}, leftmost pixel in the most significant bit
+     * @param dirtyRows bit y set for every row y changed since the last call
+     */
+    void present(long[] rows, int width, int height, long dirtyRows) {
+        if (dirtyRows == 0 && width == frame.width && height == frame.height) {
+            return;
+        }
+
+        dirtyRows = frame.update(rows, width, height, dirtyRows);
+
+        // upload each run of consecutive dirty rows in one go
+        while (dirtyRows != 0) {
+            int first = Long.numberOfTrailingZeros(dirtyRows);
+            int count = Long.numberOfTrailingZeros(~(dirtyRows >>> first));
+            dirtyRows &= count == 64 ? 0 : ~(((1L << count) - 1) << first);
+
+            image.getPixelWriter().setPixels(0, first, width, count, format, frame.pixels, first * width, width);
+        }
+
+        gc.drawImage(image, 0, 0, width, height, 0, 0, gc.getCanvas().getWidth(), gc.getCanvas().getHeight());
+    }
+}
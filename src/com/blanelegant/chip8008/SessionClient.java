@@ -0,0 +1,262 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Stand-in for the clients of a {@link SessionServer}, playing any number of sessions from a single thread to try a
+ * server out or load it. Every session keeps its screen up to date from the frames it is sent and presses random keys
+ * now and then. At the end it prints what the sessions were sent and, with --screen, the first one's screen.
+ *
+ * Usage: SessionClient [--host HOST] [--port N | --unix PATH] [--sessions N] [--seconds N] [--screen]
+ */
+public final class SessionClient {
+
+    /**
+     * One connection to the server and the screen as it has been sent.
+     */
+    static final class Connection {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(2 * SessionServer.MAX_FRAME);
+        long[] rows = new long[0]; // the words of every plane of a row, row by row
+        int width;
+        int rowWords; // in all planes
+
+        int frame; // of the last frame sent
+        long frames;
+        long rowsReceived;
+        long bytes;
+        String error; // sent by the server, null while running
+        boolean closed;
+
+        int keys; // held down, bit n for key n
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Decodes every complete message read so far.
+         */
+        void decode() throws IOException {
+            in.flip();
+
+            while (in.hasRemaining()) {
+                int start = in.position();
+                byte type = in.get(start);
+
+                if (type == SessionServer.HELLO && in.remaining() >= SessionServer.HELLO_LENGTH) {
+                    width = in.getShort(start + 1);
+                    rowWords = width / 64 * in.get(start + 7);
+                    rows = new long[in.getShort(start + 3) * rowWords];
+                    in.position(start + SessionServer.HELLO_LENGTH);
+                } else if (type == SessionServer.FRAME && in.remaining() >= 13) {
+                    long changed = in.getLong(start + 5);
+                    int length = 13 + Long.bitCount(changed) * rowWords * 8;
+
+                    if (in.remaining() < length) {
+                        break;
+                    }
+
+                    frame = in.getInt(start + 1);
+                    in.position(start + 13);
+                    for (; changed != 0; changed &= changed - 1) {
+                        int row = Long.numberOfTrailingZeros(changed) * rowWords;
+
+                        for (int i = row; i < row + rowWords; i++) {
+                            rows[i] = in.getLong();
+                        }
+                        rowsReceived++;
+                    }
+                    frames++;
+                } else if (type == SessionServer.ERROR && in.remaining() >= 3) {
+                    int length = 3 + in.getShort(start + 1);
+
+                    if (in.remaining() < length) {
+                        break;
+                    }
+
+                    byte[] text = new byte[length - 3];
+                    in.position(start + 3);
+                    in.get(text);
+                    error = new String(text, StandardCharsets.UTF_8);
+                } else if (type != SessionServer.HELLO && type != SessionServer.FRAME && type != SessionServer.ERROR) {
+                    throw new IOException("Unexpected message " + type);
+                } else {
+                    break; // the rest of the message is yet to come
+                }
+            }
+
+            in.compact();
+        }
+
+        /**
+         * Presses or releases a key.
+         */
+        void press(int key, boolean down) throws IOException {
+            keys = down ? keys | 1 << key : keys & ~(1 << key);
+            channel.write(ByteBuffer.wrap(new byte[] { (byte) ((down ? 0x10 : 0x00) | key) }));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = SessionServer.DEFAULT_PORT;
+        String unix = null;
+        int sessions = 1;
+        int seconds = 10;
+        boolean screen = false;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--host":
+                        host = args[++i];
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--unix":
+                        unix = args[++i];
+                        break;
+                    case "--sessions":
+                        sessions = Integer.parseInt(args[++i]);
+                        break;
+                    case "--seconds":
+                        seconds = Integer.parseInt(args[++i]);
+                        break;
+                    case "--screen":
+                        screen = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                }
+            }
+
+            if (sessions < 1 || seconds < 0) {
+                throw new IllegalArgumentException("Missing or invalid arguments");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: SessionClient [--host HOST] [--port N | --unix PATH] [--sessions N] "
+                    + "[--seconds N] [--screen]");
+            System.exit(2);
+            return;
+        }
+
+        SocketAddress address = unix != null ? UnixDomainSocketAddress.of(Paths.get(unix))
+                : new InetSocketAddress(host, port);
+
+        Selector selector = Selector.open();
+        Connection[] connections = new Connection[sessions];
+
+        for (int i = 0; i < sessions; i++) {
+            SocketChannel channel = unix != null ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+            channel.connect(address);
+            channel.configureBlocking(false);
+
+            connections[i] = new Connection(channel);
+            channel.register(selector, SelectionKey.OP_READ, connections[i]);
+        }
+
+        Random random = new Random(0);
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        long nextPresses = start;
+
+        for (long now = start; now < end; now = System.nanoTime()) {
+            selector.select(Math.max(1, Math.min(100, (end - now) / 1_000_000)));
+
+            for (SelectionKey key : selector.selectedKeys()) {
+                Connection connection = (Connection) key.attachment();
+                int read;
+
+                try {
+                    read = connection.channel.read(connection.in);
+                } catch (IOException e) {
+                    read = -1; // reset by the server closing on keys it never read
+                }
+
+                if (read < 0) {
+                    connection.closed = true;
+                    key.cancel();
+                    continue;
+                }
+
+                connection.bytes += read;
+                connection.decode();
+            }
+            selector.selectedKeys().clear();
+
+            // every tenth of a second, flip a random key of a random tenth of the sessions
+            if (now >= nextPresses) {
+                for (int i = 0; i < Math.max(1, sessions / 10); i++) {
+                    Connection connection = connections[random.nextInt(sessions)];
+                    int key = random.nextInt(16);
+
+                    try {
+                        if (!connection.closed) {
+                            connection.press(key, (connection.keys & 1 << key) == 0);
+                        }
+                    } catch (IOException e) {
+                        connection.closed = true; // noticed when reading
+                    }
+                }
+                nextPresses += 100_000_000;
+            }
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long frames = 0;
+        long rows = 0;
+        long bytes = 0;
+        int closed = 0;
+
+        for (Connection connection : connections) {
+            frames += connection.frames;
+            rows += connection.rowsReceived;
+            bytes += connection.bytes;
+            if (connection.closed) {
+                closed++;
+            }
+            connection.channel.close();
+        }
+
+        if (screen) {
+            Connection first = connections[0];
+            int words = first.width / 64;
+            StringBuilder out = new StringBuilder();
+
+            // the first plane's pixels as #, the second's as + and those set in both as @, like Headless
+            for (int row = 0; row < first.rows.length; row += first.rowWords) {
+                for (int x = 0; x < first.width; x++) {
+                    long plane1 = first.rows[row + x / 64];
+                    long plane2 = first.rowWords > words ? first.rows[row + words + x / 64] : 0;
+
+                    out.append(".#+@".charAt((int) ((plane1 << x) >>> 63 | (plane2 << x) >>> 63 << 1)));
+                }
+                out.append('\n');
+            }
+            System.out.print(out);
+        }
+
+        if (connections[0].error != null) {
+            System.out.println("Stopped: " + connections[0].error);
+        }
+
+        System.out.printf("%d sessions, %d closed, %.1f frames/s and %.2f rows/frame per session, "
+                        + "%.0f bytes/s per session, %.1f KB/s in all%n",
+                sessions, closed, frames / elapsed / sessions, frames == 0 ? 0.0 : (double) rows / frames,
+                bytes / elapsed / sessions, bytes / elapsed / 1024);
+    }
+}
@@ -0,0 +1,545 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server hosting many independent sessions of one ROM in a single JVM, each a {@link Chip8} played by a client over
+ * its own TCP or Unix domain socket connection. A shared 60 Hz clock steps every session one frame per tick across a
+ * work-stealing pool, the same way {@link EnvironmentBatch} does, and sends each client only the rows of its screen
+ * that changed since the last frame it was sent. A client whose socket can't take a frame right away isn't waited
+ * for: it misses frames, the rows they changed carried over into the next frame it can take. One selector thread
+ * accepts connections and reads key events. Sessions share the ROM's image and the recompiled code.
+ *
+ * Messages from the server, big endian:
+ * <pre>
+ *  'H'  short width, short height, short cycles per frame,      on connecting and whenever the resolution changes,
+ *       byte planes                                             to a blank screen
+ *  'F'  int frame, long rows                                    each frame something changed, followed by every row
+ *                                                               whose bit is set, top first, as width / 8 bytes of
+ *                                                               each bitplane in turn
+ *  'E'  short length, UTF-8 message                             when the ROM stopped, before closing
+ * </pre>
+ * From the client, one byte per key event: 0x1K when key K goes down, 0x0K when it goes up.
+ *
+ * Usage: SessionServer [--port N | --unix PATH] [--cycles-per-frame N] [--threads N] ROM
+ */
+public final class SessionServer implements AutoCloseable {
+
+    static final int DEFAULT_PORT = 8008;
+    static final long FRAME_NANOS = 1_000_000_000L / 60;
+
+    static final byte HELLO = 'H';
+    static final byte FRAME = 'F';
+    static final byte ERROR = 'E';
+
+    // largest hello message, and frame message with every row of every plane changed following one
+    static final int HELLO_LENGTH = 1 + 2 + 2 + 2 + 1;
+    static final int MAX_FRAME = HELLO_LENGTH + 1 + 4 + 8 + Chip8.PLANES * Chip8.HIRES_HEIGHT * Chip8.HIRES_WIDTH / 8;
+
+    private final RomImage rom;
+    private final int cyclesPerFrame;
+    private final int planes; // sent, both only for XO-CHIP ROMs
+    private final BlockCompiler recompiler = new BlockCompiler();
+
+    private final ServerSocketChannel server;
+    private final Path socketFile; // of a Unix domain socket, removed on closing
+    private final Selector selector;
+    private final Thread acceptor;
+    private final ForkJoinPool pool;
+    private final ScheduledExecutorService clock;
+
+    // replaced whole on every connect and disconnect, stepped as a snapshot
+    private volatile Session[] sessions = new Session[0];
+    private long seeds;
+
+    final LongAdder framesSent = new LongAdder();
+    final LongAdder bytesSent = new LongAdder();
+    final LongAdder framesDropped = new LongAdder(); // not sent as the client was still behind
+    final AtomicLong tickNanos = new AtomicLong(); // spent stepping sessions, in total
+
+    /**
+     * A client's machine and its view of the screen.
+     */
+    final class Session {
+        private final SocketChannel channel;
+        private final Chip8 chip = new Chip8();
+        private final long[] sent = new long[Chip8.PLANES * Chip8.PLANE_WORDS]; // screen as the client was last sent it
+        private boolean sentHighResolution;
+        private final ByteBuffer out = ByteBuffer.allocate(MAX_FRAME);
+
+        // keys held down, bit n for key n, written by the selector thread
+        volatile int keys;
+
+        private long unsentRows; // changed since the last frame sent
+        private volatile boolean closed;
+
+        Session(SocketChannel channel, long seed) {
+            this.channel = channel;
+
+            chip.reset(rom);
+            chip.setCyclesPerFrame(cyclesPerFrame);
+            chip.setSeed(seed);
+            chip.setBlockCacheEnabled(true);
+            chip.setRecompiler(recompiler);
+
+            hello();
+            out.flip();
+        }
+
+        /**
+         * Tells the client the resolution of the screen.
+         */
+        private void hello() {
+            out.put(HELLO).putShort((short) chip.screenWidth()).putShort((short) chip.screenHeight())
+                    .putShort((short) cyclesPerFrame).put((byte) planes);
+        }
+
+        /**
+         * Runs one frame and sends what it changed, unless the client hasn't taken the previous frame yet.
+         */
+        void frame() {
+            if (closed) {
+                return;
+            }
+
+            try {
+                chip.setKeys(keys);
+                chip.runFrame();
+            } catch (UnknownOpcodeException e) {
+                fail(e.getMessage());
+                return;
+            } catch (RuntimeException e) {
+                fail(e.toString());
+                return;
+            }
+
+            unsentRows |= chip.takeDirtyRows();
+
+            try {
+                if (out.hasRemaining()) {
+                    bytesSent.add(channel.write(out));
+
+                    if (out.hasRemaining()) {
+                        framesDropped.increment();
+                        return;
+                    }
+                }
+
+                if (encode()) {
+                    bytesSent.add(channel.write(out));
+                    framesSent.increment();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Encodes the rows that differ from what the client was last sent, after a hello if the resolution changed.
+         * @return whether there is anything to send
+         */
+        private boolean encode() {
+            long[] graphics = chip.graphics;
+            int words = chip.high_resolution ? 2 : 1;
+            long rows = 0;
+
+            out.clear();
+
+            if (chip.high_resolution != sentHighResolution) {
+                // the client starts over from a blank screen in the new resolution
+                hello();
+                Arrays.fill(sent, 0L);
+                sentHighResolution = chip.high_resolution;
+                unsentRows = chip.allRows();
+            }
+
+            for (long dirty = unsentRows; dirty != 0; dirty &= dirty - 1) {
+                int y = Long.numberOfTrailingZeros(dirty);
+
+                if (changed(graphics, y * words, words)) {
+                    rows |= 1L << y;
+                }
+            }
+            unsentRows = 0;
+
+            if (rows != 0) {
+                out.put(FRAME).putInt((int) chip.frame()).putLong(rows);
+
+                for (long changed = rows; changed != 0; changed &= changed - 1) {
+                    int y = Long.numberOfTrailingZeros(changed);
+
+                    for (int plane = 0; plane < planes; plane++) {
+                        int start = plane * Chip8.PLANE_WORDS + y * words;
+
+                        for (int i = start; i < start + words; i++) {
+                            out.putLong(graphics[i]);
+                            sent[i] = graphics[i];
+                        }
+                    }
+                }
+            }
+
+            out.flip();
+            return out.hasRemaining();
+        }
+
+        /**
+         * Whether a row, given by its first word, differs from what the client was last sent in any plane it is sent.
+         */
+        private boolean changed(long[] graphics, int row, int words) {
+            for (int plane = 0; plane < planes; plane++) {
+                int start = plane * Chip8.PLANE_WORDS + row;
+
+                for (int i = start; i < start + words; i++) {
+                    if (graphics[i] != sent[i]) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Tells the client why its ROM stopped, as far as its socket takes it, and disconnects it.
+         */
+        private void fail(String message) {
+            byte[] text = message.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer error = ByteBuffer.allocate(3 + text.length);
+            error.put(ERROR).putShort((short) text.length).put(text).flip();
+
+            try {
+                if (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                if (!out.hasRemaining()) {
+                    channel.write(error);
+                }
+            } catch (IOException e) {
+                // closing anyway
+            }
+
+            close();
+        }
+
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            remove(this);
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing left to do with it
+            }
+        }
+    }
+
+    /**
+     * Steps a slice of the sessions, splitting it in halves for idle workers to steal.
+     */
+    private final class Slice extends RecursiveAction {
+        private final Session[] sessions;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Slice(Session[] sessions, int from, int to, int grain) {
+            this.sessions = sessions;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int i = from; i < to; i++) {
+                    sessions[i].frame();
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Slice(sessions, from, middle, grain), new Slice(sessions, middle, to, grain));
+            }
+        }
+    }
+
+    /**
+     * Starts serving the ROM on the given address, a TCP one or a Unix domain socket's.
+     */
+    SessionServer(RomImage rom, int cyclesPerFrame, SocketAddress address, int threads) throws IOException {
+        this.rom = rom;
+        this.cyclesPerFrame = cyclesPerFrame;
+        planes = rom.variant == RomLibrary.Variant.XO_CHIP ? 2 : 1;
+
+        ProtocolFamily family = address instanceof UnixDomainSocketAddress ? StandardProtocolFamily.UNIX
+                : StandardProtocolFamily.INET;
+        socketFile = address instanceof UnixDomainSocketAddress ? ((UnixDomainSocketAddress) address).getPath() : null;
+
+        if (socketFile != null) {
+            Files.deleteIfExists(socketFile); // left over from a server that didn't shut down
+        }
+
+        server = ServerSocketChannel.open(family);
+        server.bind(address, 1024);
+        server.configureBlocking(false);
+
+        selector = Selector.open();
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        pool = new ForkJoinPool(threads);
+        clock = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chip8008-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        acceptor = new Thread(this::select, "chip8008-sessions");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        clock.scheduleAtFixedRate(this::tick, FRAME_NANOS, FRAME_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    SocketAddress address() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    int sessionCount() {
+        return sessions.length;
+    }
+
+    /**
+     * Steps every session one frame, on the clock thread.
+     */
+    private void tick() {
+        Session[] current = sessions;
+        if (current.length == 0) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int grain = Math.max(1, current.length / (pool.getParallelism() * 4));
+        pool.invoke(new Slice(current, 0, current.length, grain));
+        tickNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * Accepts clients and reads their key events, on the selector thread.
+     */
+    private void select() {
+        ByteBuffer in = ByteBuffer.allocate(256);
+
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read((Session) key.attachment(), in);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (ClosedSelectorException e) {
+            // shut down
+        } catch (IOException e) {
+            System.err.println("Session server stopped: " + e.getMessage());
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            if (socketFile == null) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+
+            Session session = new Session(channel, seeds++);
+            channel.register(selector, SelectionKey.OP_READ, session);
+            add(session);
+        }
+    }
+
+    private static void read(Session session, ByteBuffer in) {
+        in.clear();
+
+        try {
+            if (session.channel.read(in) < 0) {
+                session.close();
+                return;
+            }
+        } catch (IOException e) {
+            session.close();
+            return;
+        }
+
+        int keys = session.keys;
+
+        for (int i = 0; i < in.position(); i++) {
+            int event = in.get(i);
+            int bit = 1 << (event & 0xF);
+
+            keys = (event & 0x10) != 0 ? keys | bit : keys & ~bit;
+        }
+
+        session.keys = keys;
+    }
+
+    private synchronized void add(Session session) {
+        Session[] grown = Arrays.copyOf(sessions, sessions.length + 1);
+        grown[sessions.length] = session;
+        sessions = grown;
+    }
+
+    private synchronized void remove(Session session) {
+        Session[] current = sessions;
+
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == session) {
+                Session[] shrunk = Arrays.copyOf(current, current.length - 1);
+                System.arraycopy(current, i + 1, shrunk, i, current.length - i - 1);
+                sessions = shrunk;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the clock, disconnects every client and stops listening.
+     */
+    @Override
+    public void close() throws IOException {
+        clock.shutdownNow();
+        pool.shutdown();
+
+        for (Session session : sessions) {
+            session.close();
+        }
+
+        selector.close();
+        server.close();
+
+        if (socketFile != null) {
+            Files.deleteIfExists(socketFile);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        Path unix = null;
+        int cyclesPerFrame = Chip8.DEFAULT_CYCLES_PER_FRAME;
+        int threads = Runtime.getRuntime().availableProcessors();
+        RomImage rom;
+
+        try {
+            String file = null;
+
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--unix":
+                        unix = Paths.get(args[++i]);
+                        break;
+                    case "--cycles-per-frame":
+                        cyclesPerFrame = Integer.parseInt(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("--") || file != null) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        file = args[i];
+                }
+            }
+
+            if (file == null || cyclesPerFrame < 1 || cyclesPerFrame > Chip8.MAX_CYCLES_PER_FRAME
+                    || threads < 1) {
+                throw new IllegalArgumentException("Missing or invalid arguments");
+            }
+
+            rom = RomImage.read(Paths.get(file));
+        } catch (IOException | RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: SessionServer [--port N | --unix PATH] [--cycles-per-frame N] [--threads N] ROM");
+            System.exit(2);
+            return;
+        }
+
+        SocketAddress address = unix != null ? UnixDomainSocketAddress.of(unix) : new InetSocketAddress(port);
+
+        SessionServer server = new SessionServer(rom, cyclesPerFrame, address, threads);
+        System.err.println("Serving on " + server.address());
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }));
+
+        long frames = 0;
+        long bytes = 0;
+        long ticks = 0;
+        long dropped = 0;
+
+        // report every ten seconds until killed
+        while (true) {
+            Thread.sleep(10_000);
+
+            long nowFrames = server.framesSent.sum();
+            long nowBytes = server.bytesSent.sum();
+            long nowTicks = server.tickNanos.get();
+            long nowDropped = server.framesDropped.sum();
+
+            System.err.printf("%d sessions, %.0f frames/s sent, %.0f dropped, %.1f KB/s, %.1f%% of the time stepping%n",
+                    server.sessionCount(), (nowFrames - frames) / 10.0, (nowDropped - dropped) / 10.0,
+                    (nowBytes - bytes) / 10.0 / 1024, (nowTicks - ticks) / 1e8);
+
+            frames = nowFrames;
+            bytes = nowBytes;
+            ticks = nowTicks;
+            dropped = nowDropped;
+        }
+    }
+}
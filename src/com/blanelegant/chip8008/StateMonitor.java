@@ -0,0 +1,102 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Watches a running emulator from another process through the {@link StateView} it publishes, started with
+ * -Dchip8008.state=FILE. Polls the view and prints one tab separated line per new frame seen: frame, cycles, program
+ * counter, index, delay and sound timers and registers V0-VF, all in hex but the first two, preceded by the screen
+ * with --screen. The emulator is never paused or slowed down by watching it.
+ *
+ * Usage: StateMonitor [--interval MS] [--count N] [--screen] FILE
+ */
+public final class StateMonitor {
+
+    // how --screen prints a pixel set in no bitplane, the first, the second and both, like Headless
+    private static final char[] PIXELS = { '.', '#', '+', '@' };
+
+    private StateMonitor() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int interval = 1000;
+        long count = Long.MAX_VALUE;
+        boolean screen = false;
+        String file = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--interval":
+                        interval = Integer.parseInt(args[++i]);
+                        break;
+                    case "--count":
+                        count = Long.parseLong(args[++i]);
+                        break;
+                    case "--screen":
+                        screen = true;
+                        break;
+                    default:
+                        if (args[i].startsWith("--") || file != null) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        file = args[i];
+                }
+            }
+
+            if (file == null || interval < 1 || count < 1) {
+                throw new IllegalArgumentException("Missing or invalid arguments");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: StateMonitor [--interval MS] [--count N] [--screen] FILE");
+            System.exit(2);
+            return;
+        }
+
+        StateView view;
+
+        try {
+            view = StateView.open(Paths.get(file));
+        } catch (IOException e) {
+            System.err.println("Cannot open state view: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        Chip8 chip = new Chip8();
+        chip.initialize();
+        long seen = 0;
+
+        for (long printed = 0; printed < count; Thread.sleep(interval)) {
+            if (view.sequence() == seen || (seen = view.read(chip)) == 0) {
+                continue; // nothing new published
+            }
+
+            StringBuilder out = new StringBuilder();
+
+            if (screen) {
+                for (int y = 0; y < chip.screenHeight(); y++) {
+                    for (int x = 0; x < chip.screenWidth(); x++) {
+                        out.append(PIXELS[chip.pixel(x, y)]);
+                    }
+                    out.append('\n');
+                }
+            }
+
+            out.append(chip.frame()).append('\t').append(chip.cycles)
+                    .append('\t').append(Integer.toHexString(chip.program_counter))
+                    .append('\t').append(Integer.toHexString(chip.index))
+                    .append('\t').append(Integer.toHexString(chip.delayTimer()))
+                    .append('\t').append(Integer.toHexString(chip.soundTimer()));
+            for (char register : chip.register) {
+                out.append('\t').append(Integer.toHexString(register));
+            }
+
+            System.out.println(out);
+            printed++;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Live view of a machine's state in a fixed layout off the heap, for observers such as debuggers, frame grabbers or
+ * metrics exporters to read without pausing or even touching the emulation thread. Backed by a memory-mapped file,
+ * the view can be read from other processes too.
+ *
+ * The emulation thread publishes the whole machine as a {@link SaveState} snapshot at the end of every frame, so the
+ * view is never more than a frame behind and always shows a frame boundary. The machine itself keeps its state in
+ * its own arrays, where the interpreter and the recompiled blocks index it directly. Publishing is guarded by a
+ * sequence lock: the sequence is odd while a snapshot is being written and goes up by two with every one published,
+ * so a reader copies the snapshot out and keeps the copy only if the sequence was even and unchanged around it.
+ * Neither side ever blocks the other.
+ *
+ * Layout, big endian:
+ * <pre>
+ *   0  int    magic "C8SV"
+ *   4  short  version
+ *   8  long   sequence, odd while publishing
+ *  16  long   frame
+ *  24  byte   delay timer
+ *  25  byte   sound timer
+ *  64  ...    snapshot as laid out by {@link SaveState}
+ * </pre>
+ */
+final class StateView {
+
+    static final int MAGIC = 0x43385356; // "C8SV"
+    static final short VERSION = 1;
+
+    private static final int SEQUENCE = 8;
+    private static final int FRAME = 16;
+    private static final int DELAY_TIMER = 24;
+    private static final int SOUND_TIMER = 25;
+    private static final int SNAPSHOT = 64; // a cache line of its own for the header
+
+    /**
+     * Size in bytes of a view, holding a snapshot of any machine.
+     */
+    static final int SIZE = SNAPSHOT + SaveState.MAX_SIZE;
+
+    // ordered access to the sequence, which plain buffer reads and writes don't give
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final ByteBuffer buffer;
+
+    // the writer's sequence; readers copy into their own scratch buffer
+    private long sequence;
+    private ByteBuffer copy;
+
+    private StateView(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a view in memory of this process only.
+     */
+    static StateView allocate() {
+        return create(ByteBuffer.allocateDirect(SIZE));
+    }
+
+    /**
+     * Creates a view in a memory-mapped file, for other processes to {@link #open(Path)}. The file is created or
+     * overwritten, and holds no state until the first {@link #publish(Chip8)}.
+     */
+    static StateView create(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return create(channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE));
+        }
+    }
+
+    private static StateView create(ByteBuffer buffer) {
+        LONGS.setRelease(buffer, SEQUENCE, 0L);
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+
+        return new StateView(buffer);
+    }
+
+    /**
+     * Opens a view created by another process for reading.
+     * @throws IOException if the file can't be mapped or holds no view of this version
+     */
+    static StateView open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < SIZE) {
+                throw new IOException(file + " is too short for a state view");
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, SIZE);
+
+            if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+                throw new IOException(file + " holds no version " + VERSION + " state view");
+            }
+
+            return new StateView(buffer);
+        }
+    }
+
+    /**
+     * Publishes the machine's state, from the emulation thread at the end of a frame.
+     */
+    void publish(Chip8 chip) {
+        LONGS.setOpaque(buffer, SEQUENCE, ++sequence);
+        VarHandle.storeStoreFence(); // the odd sequence is seen before any of the snapshot being overwritten
+
+        buffer.putLong(FRAME, chip.frame());
+        buffer.put(DELAY_TIMER, (byte) chip.delayTimer());
+        buffer.put(SOUND_TIMER, (byte) chip.soundTimer());
+        SaveState.save(chip, buffer, SNAPSHOT);
+
+        LONGS.setRelease(buffer, SEQUENCE, ++sequence);
+    }
+
+    /**
+     * Sequence of the last state published, which changes with every frame published and is 0 before the first.
+     * Cheap enough to poll for new frames.
+     */
+    long sequence() {
+        return (long) LONGS.getAcquire(buffer, SEQUENCE);
+    }
+
+    /**
+     * Restores the given machine to the last state published, waiting out a publication under way rather than
+     * blocking it. The machine is for looking at, such as through {@link Chip8#pixel(int, int)} or
+     * {@link Chip8#delayTimer()}, or for running on from there.
+     * @return the sequence of the state read, 0 if nothing has been published yet and the machine was left alone
+     */
+    long read(Chip8 chip) {
+        if (copy == null) {
+            copy = ByteBuffer.allocate(SaveState.MAX_SIZE);
+        }
+
+        while (true) {
+            long before = (long) LONGS.getAcquire(buffer, SEQUENCE);
+
+            if (before == 0) {
+                return 0;
+            }
+
+            if ((before & 1) == 0) {
+                // the size may be torn, in which case the sequence has moved on too and the copy is thrown away
+                int size = Math.min(Math.max(SaveState.size(buffer, SNAPSHOT), 0), SaveState.MAX_SIZE);
+
+                copy.clear();
+                copy.put(0, buffer, SNAPSHOT, size);
+                VarHandle.loadLoadFence(); // the copy is complete before the sequence is checked again
+
+                if ((long) LONGS.getAcquire(buffer, SEQUENCE) == before) {
+                    SaveState.restore(chip, copy.limit(size), 0);
+                    return before;
+                }
+            }
+
+            Thread.onSpinWait();
+        }
+    }
+}
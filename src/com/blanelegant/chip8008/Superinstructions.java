@@ -0,0 +1,108 @@
+package com.blanelegant.chip8008;
+
+/**
+ * Superinstructions: pairs of instructions that commonly follow each other, fused by the block decoder into a single
+ * instruction with a handler calling both operations directly. Interpreting a block then takes one dispatch per pair
+ * instead of two. A fused handler leaves the machine exactly as the two instructions would one after the other,
+ * accounting for the second the way fetching it would: the current instruction, program counter and cycle count
+ * all advance, so timers, traces of the cycle count and the skip semantics stay exact.
+ *
+ * Fused instructions only ever appear in a {@link BasicBlock}'s program, never in the dispatch table.
+ */
+final class Superinstructions {
+
+    // ANNN, DXYN: points I at a sprite and draws it
+    private static final Instruction.Handler SET_INDEX_DRAW = (chip, pair) -> {
+        chip.opANNN(pair);
+        fetch(chip, pair.next);
+        chip.opDXYN(pair.next);
+    };
+
+    // 6XNN, 6XNN: loads two registers
+    private static final Instruction.Handler LOAD_LOAD = (chip, pair) -> {
+        chip.op6XNN(pair);
+        fetch(chip, pair.next);
+        chip.op6XNN(pair.next);
+    };
+
+    // FX15, FX07: sets the delay timer and reads it back, as timing loops start
+    private static final Instruction.Handler SET_DELAY_READ_DELAY = (chip, pair) -> {
+        chip.opFX15(pair);
+        fetch(chip, pair.next);
+        chip.opFX07(pair.next);
+    };
+
+    // 3XNN, 4XNN or 9XY0 followed by 1NNN: a conditional jump, the jump only running when not skipped over
+    private static final Instruction.Handler SKIP_EQUAL_JUMP = (chip, pair) -> {
+        char jump = chip.program_counter;
+        chip.op3XNN(pair);
+
+        if (chip.program_counter == jump) {
+            fetch(chip, pair.next);
+            chip.op1NNN(pair.next);
+        }
+    };
+
+    private static final Instruction.Handler SKIP_NOT_EQUAL_JUMP = (chip, pair) -> {
+        char jump = chip.program_counter;
+        chip.op4XNN(pair);
+
+        if (chip.program_counter == jump) {
+            fetch(chip, pair.next);
+            chip.op1NNN(pair.next);
+        }
+    };
+
+    private static final Instruction.Handler SKIP_NOT_EQUAL_REGISTER_JUMP = (chip, pair) -> {
+        char jump = chip.program_counter;
+        chip.op9XY0(pair);
+
+        if (chip.program_counter == jump) {
+            fetch(chip, pair.next);
+            chip.op1NNN(pair.next);
+        }
+    };
+
+    private Superinstructions() {
+
+    }
+
+    /**
+     * Fuses two consecutive instructions.
+     * @return the superinstruction running both, or null if they don't make one
+     */
+    static Instruction fuse(Instruction first, Instruction second) {
+        switch (first.name) {
+            case "ANNN":
+                return second.name.equals("DXYN") ? new Instruction(first, SET_INDEX_DRAW, second) : null;
+
+            case "6XNN":
+                return second.name.equals("6XNN") ? new Instruction(first, LOAD_LOAD, second) : null;
+
+            case "FX15":
+                return second.name.equals("FX07") ? new Instruction(first, SET_DELAY_READ_DELAY, second) : null;
+
+            case "3XNN":
+                return second.name.equals("1NNN") ? new Instruction(first, SKIP_EQUAL_JUMP, second) : null;
+
+            case "4XNN":
+                return second.name.equals("1NNN") ? new Instruction(first, SKIP_NOT_EQUAL_JUMP, second) : null;
+
+            case "9XY0":
+                return second.name.equals("1NNN") ? new Instruction(first, SKIP_NOT_EQUAL_REGISTER_JUMP, second)
+                        : null;
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Advances the machine over the second instruction of a pair as fetching it would.
+     */
+    private static void fetch(Chip8 chip, Instruction instruction) {
+        chip.current_instruction = instruction.opcode;
+        chip.program_counter += 2;
+        chip.cycles++;
+    }
+}
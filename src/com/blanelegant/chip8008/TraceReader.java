@@ -0,0 +1,244 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+
+/**
+ * Streams the records of a trace written by {@link TraceRecorder}. The reader is a cursor: {@link #next()} moves it
+ * to the following record, whose fields the accessors then return. The file is mapped one window at a time, so
+ * traces of any size are read without loading them into memory and without allocating per record.
+ *
+ * Usage: TraceReader [--cycles FROM-TO] [--address FROM-TO] [--op NAME] [--writes N] [--limit N] FILE
+ *
+ * Prints the matching records, one per line. Addresses and register numbers are in hex, e.g. --address 200-2FF
+ * --op DXYN --writes F.
+ */
+public final class TraceReader implements AutoCloseable {
+
+    // bytes mapped at a time, a multiple of the record size
+    private static final long WINDOW_SIZE = 64L << 20;
+
+    private final FileChannel channel;
+    private final long records;
+
+    private MappedByteBuffer window;
+    private long windowEnd; // index of the first record past the window
+    private long current = -1; // index of the current record
+    private int offset; // of the current record within the window
+
+    /**
+     * Opens a trace.
+     * @throws IOException if the file can't be read or isn't a trace of a known version
+     */
+    TraceReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+            if (channel.size() < TraceRecorder.HEADER_SIZE) {
+                throw new IOException(file + " is too short for a trace");
+            }
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, TraceRecorder.HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (header.getInt(0) != TraceRecorder.MAGIC || header.getShort(4) != TraceRecorder.VERSION
+                    || header.getShort(6) != TraceRecorder.RECORD_SIZE) {
+                throw new IOException(file + " is not a version " + TraceRecorder.VERSION + " trace");
+            }
+
+            records = header.getLong(8);
+
+            if (channel.size() < TraceRecorder.HEADER_SIZE + records * TraceRecorder.RECORD_SIZE) {
+                throw new IOException(file + " is truncated");
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Number of records in the trace.
+     */
+    long records() {
+        return records;
+    }
+
+    /**
+     * Moves to the next record.
+     * @return false once past the last record
+     */
+    boolean next() throws IOException {
+        if (current + 1 >= records) {
+            current = records;
+            return false;
+        }
+
+        current++;
+
+        if (current >= windowEnd) {
+            long count = Math.min(records - current, WINDOW_SIZE / TraceRecorder.RECORD_SIZE);
+
+            long position = TraceRecorder.HEADER_SIZE + current * TraceRecorder.RECORD_SIZE;
+
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, count * TraceRecorder.RECORD_SIZE);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            windowEnd = current + count;
+            offset = 0;
+        } else {
+            offset += TraceRecorder.RECORD_SIZE;
+        }
+
+        return true;
+    }
+
+    /**
+     * Cycle of the current record, counting the instruction itself.
+     */
+    long cycle() {
+        return window.getLong(offset);
+    }
+
+    int address() {
+        return window.getShort(offset + 8) & 0xFFFF;
+    }
+
+    char opcode() {
+        return window.getChar(offset + 10);
+    }
+
+    /**
+     * Opcode family of the current record, e.g. DXYN.
+     */
+    String name() {
+        return InstructionTable.TABLE[opcode()].name;
+    }
+
+    /**
+     * Value of the index register after the instruction.
+     */
+    int index() {
+        return window.getShort(offset + 12) & 0xFFFF;
+    }
+
+    /**
+     * Registers the instruction writes, bit n standing for VN.
+     */
+    int writes() {
+        return window.getShort(offset + 14) & 0xFFFF;
+    }
+
+    /**
+     * Value of a register after the instruction, or -1 if the instruction doesn't write it.
+     */
+    int register(int n) {
+        int writes = writes();
+
+        if ((writes & (1 << n)) == 0) {
+            return -1;
+        }
+
+        // values are stored in register order, skip those of lower registers
+        return window.get(offset + 16 + Integer.bitCount(writes & ((1 << n) - 1))) & 0xFF;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder(String.format("%12d  %03X  %04X %-4s  I=%03X",
+                cycle(), address(), (int) opcode(), name(), index()));
+
+        for (int writes = writes(); writes != 0; writes &= writes - 1) {
+            int n = Integer.numberOfTrailingZeros(writes);
+            line.append(String.format("  V%X=%02X", n, register(n)));
+        }
+
+        return line.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Predicate<TraceReader> filter = record -> true;
+        long limit = Long.MAX_VALUE;
+        Path file = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--cycles": {
+                        long[] range = range(args[++i], 10);
+                        filter = filter.and(record -> record.cycle() >= range[0] && record.cycle() <= range[1]);
+                        break;
+                    }
+                    case "--address": {
+                        long[] range = range(args[++i], 16);
+                        filter = filter.and(record -> record.address() >= range[0] && record.address() <= range[1]);
+                        break;
+                    }
+                    case "--op": {
+                        String name = args[++i].toUpperCase();
+                        filter = filter.and(record -> record.name().equals(name));
+                        break;
+                    }
+                    case "--writes": {
+                        int bit = 1 << Integer.parseInt(args[++i], 16);
+                        filter = filter.and(record -> (record.writes() & bit) != 0);
+                        break;
+                    }
+                    case "--limit":
+                        limit = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("--") || file != null) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        file = Paths.get(args[i]);
+                }
+            }
+
+            if (file == null) {
+                throw new IllegalArgumentException("Missing trace file");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: TraceReader [--cycles FROM-TO] [--address FROM-TO] [--op NAME] [--writes N] "
+                    + "[--limit N] FILE");
+            System.exit(2);
+            return;
+        }
+
+        try (TraceReader reader = new TraceReader(file)) {
+            while (limit > 0 && reader.next()) {
+                if (filter.test(reader)) {
+                    System.out.println(reader);
+                    limit--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses FROM-TO, or a single value standing for both.
+     */
+    private static long[] range(String text, int radix) {
+        int dash = text.indexOf('-');
+
+        if (dash < 0) {
+            long value = Long.parseLong(text, radix);
+            return new long[] { value, value };
+        }
+
+        return new long[] {
+                Long.parseLong(text.substring(0, dash), radix), Long.parseLong(text.substring(dash + 1), radix) };
+    }
+}
@@ -0,0 +1,287 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records every executed instruction into a trace file. Like the {@link Profiler}, the recorder swaps the machine's
+ * dispatch table for one of its own, whose instructions hand over to the table they replaced and then append a
+ * record to an off-heap ring buffer. A background thread drains the ring into the file through memory mappings.
+ * Should the writer fall behind by a whole ring, the emulation thread waits for it, so no record is ever lost.
+ *
+ * A trace file is a 32 byte header followed by 32 byte records, little endian:
+ * <pre>
+ * header:  0  int    magic "C8TR"
+ *          4  short  version
+ *          6  short  record size
+ *          8  long   number of records
+ *
+ * record:  0  long   cycle, counting the instruction itself
+ *          8  short  address of the instruction
+ *         10  short  opcode
+ *         12  short  index register after the instruction
+ *         14  short  registers the instruction writes, bit n standing for VN
+ *         16  16     values of those registers after the instruction, in order from V0
+ * </pre>
+ * Traces are read back by {@link TraceReader}.
+ */
+final class TraceRecorder implements Instruction.Handler {
+
+    static final int MAGIC = 0x52543843; // "C8TR" read little endian
+    static final short VERSION = 1;
+    static final int RECORD_SIZE = 32;
+    static final int HEADER_SIZE = RECORD_SIZE;
+
+    // default ring size, 32 MB of records
+    static final int DEFAULT_RING_RECORDS = 1 << 20;
+
+    // the file is mapped in chunks of this many bytes
+    private static final long CHUNK_SIZE = 64L << 20;
+
+    // registers written by every opcode, as a bit mask
+    private static final char[] WRITES = new char[0x10000];
+
+    static {
+        for (int opcode = 0; opcode < WRITES.length; opcode++) {
+            Instruction instruction = InstructionTable.TABLE[opcode];
+            int vx = 1 << instruction.x;
+
+            switch (instruction.name) {
+                case "6XNN":
+                case "7XNN":
+                case "8XY0":
+                case "8XY1":
+                case "8XY2":
+                case "8XY3":
+                case "CXNN":
+                case "FX07":
+                case "FX0A":
+                    WRITES[opcode] = (char) vx;
+                    break;
+
+                case "8XY4":
+                case "8XY5":
+                case "8XY6":
+                case "8XY7":
+                case "8XYE":
+                    WRITES[opcode] = (char) (vx | 1 << 0xF);
+                    break;
+
+                case "DXYN":
+                    WRITES[opcode] = (char) (1 << 0xF);
+                    break;
+
+                case "FX65":
+                case "FX85":
+                    WRITES[opcode] = (char) ((vx << 1) - 1);
+                    break;
+
+                case "5XY3":
+                    // VX to VY in either order
+                    int low = Math.min(instruction.x, instruction.y);
+                    int high = Math.max(instruction.x, instruction.y);
+                    WRITES[opcode] = (char) ((2 << high) - (1 << low));
+                    break;
+            }
+        }
+    }
+
+    private final Instruction[] table = new Instruction[0x10000];
+    private Instruction[] inner; // the table this recorder replaced, executing the instructions
+
+    // ring of records, written by the emulation thread and drained by the writer thread
+    private final ByteBuffer ring;
+    private final long ringMask;
+    private final AtomicLong head = new AtomicLong(); // records written
+    private final AtomicLong tail = new AtomicLong(); // records drained
+    private long cachedTail; // the writer's progress as last seen by the emulation thread
+
+    private final FileChannel channel;
+    private final Thread writer;
+    private volatile boolean closing;
+    private volatile IOException failure;
+
+    /**
+     * Creates the trace file, replacing an existing one, and starts the writer thread.
+     * @param ringRecords capacity of the ring in records, a power of two
+     */
+    TraceRecorder(Path file, int ringRecords) throws IOException {
+        if (Integer.bitCount(ringRecords) != 1) {
+            throw new IllegalArgumentException("Ring size must be a power of two: " + ringRecords);
+        }
+
+        for (int opcode = 0; opcode < table.length; opcode++) {
+            Instruction instruction = InstructionTable.TABLE[opcode];
+            table[opcode] = new Instruction(instruction.opcode, instruction.name, this, instruction.flags);
+        }
+
+        ring = ByteBuffer.allocateDirect(ringRecords * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        ringMask = ringRecords - 1;
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        writer = new Thread(this::drain, "chip8-trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    TraceRecorder(Path file) throws IOException {
+        this(file, DEFAULT_RING_RECORDS);
+    }
+
+    /**
+     * Starts tracing the machine. Only to be called from the thread running it.
+     */
+    void attach(Chip8 chip) {
+        inner = chip.dispatch;
+        chip.dispatch = table;
+    }
+
+    /**
+     * Stops tracing the machine, putting back the dispatch table found when attaching.
+     */
+    void detach(Chip8 chip) {
+        chip.dispatch = inner;
+    }
+
+    /**
+     * Executes an instruction dispatched through the recorder's table, then records it.
+     */
+    @Override
+    public void execute(Chip8 chip, Instruction instruction) throws UnknownOpcodeException {
+        int address = chip.program_counter - 2; // the program counter has already moved on, and may jump now
+
+        Instruction target = inner[instruction.opcode];
+        target.handler.execute(chip, target);
+
+        long position = head.get(); // only ever written by this thread
+
+        if (position - cachedTail > ringMask) {
+            awaitRoom(position);
+        }
+
+        int offset = (int) (position & ringMask) * RECORD_SIZE;
+        int writes = WRITES[instruction.opcode];
+
+        ring.putLong(offset, chip.cycles);
+        ring.putShort(offset + 8, (short) address);
+        ring.putShort(offset + 10, (short) instruction.opcode);
+        ring.putShort(offset + 12, (short) chip.index);
+        ring.putShort(offset + 14, (short) writes);
+
+        int value = offset + 16;
+        while (writes != 0) {
+            ring.put(value++, (byte) chip.register[Integer.numberOfTrailingZeros(writes)]);
+            writes &= writes - 1;
+        }
+
+        head.lazySet(position + 1);
+    }
+
+    /**
+     * Waits for the writer to make room in a full ring.
+     */
+    private void awaitRoom(long position) {
+        while (position - (cachedTail = tail.get()) > ringMask) {
+            if (failure != null || !writer.isAlive()) {
+                throw new IllegalStateException("Trace writer stopped", failure);
+            }
+
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(10_000);
+        }
+    }
+
+    /**
+     * Writes out the records still in the ring, completes the header and closes the file.
+     * @throws IOException if writing the trace failed at any point
+     */
+    void close() throws IOException {
+        closing = true;
+        LockSupport.unpark(writer);
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+
+            long records = tail.get();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC);
+            header.putShort(4, VERSION);
+            header.putShort(6, (short) RECORD_SIZE);
+            header.putLong(8, records);
+            channel.write(header, 0);
+
+            // drop the unused tail of the last chunk; platforms that refuse to truncate mapped files keep it
+            try {
+                channel.truncate(HEADER_SIZE + records * RECORD_SIZE);
+            } catch (IOException e) {
+                // the header tells readers where the records end
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Body of the writer thread, copying records from the ring into the file until closed.
+     */
+    private void drain() {
+        MappedByteBuffer chunk = null;
+        long chunkStart = 0;
+
+        try {
+            while (true) {
+                long from = tail.get();
+                long to = head.get();
+
+                if (from == to) {
+                    if (closing && head.get() == from) {
+                        break; // the emulation thread is done, and everything it wrote has been written out
+                    }
+
+                    LockSupport.parkNanos(this, 100_000);
+                    continue;
+                }
+
+                // copy up to the end of the ring, the end of the chunk or what's there, whichever comes first
+                long fileOffset = HEADER_SIZE + from * RECORD_SIZE;
+
+                if (chunk == null || fileOffset >= chunkStart + CHUNK_SIZE) {
+                    chunkStart = fileOffset - fileOffset % CHUNK_SIZE;
+                    chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart, CHUNK_SIZE);
+                }
+
+                long count = Math.min(to - from, ringMask + 1 - (from & ringMask));
+                count = Math.min(count, (chunkStart + CHUNK_SIZE - fileOffset) / RECORD_SIZE);
+
+                ByteBuffer source = ring.duplicate();
+                int start = (int) (from & ringMask) * RECORD_SIZE;
+                source.limit(start + (int) count * RECORD_SIZE).position(start);
+
+                chunk.position((int) (fileOffset - chunkStart));
+                chunk.put(source);
+
+                tail.lazySet(from + count);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+}
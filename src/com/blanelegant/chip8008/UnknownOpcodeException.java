@@ -5,4 +5,8 @@ public class UnknownOpcodeException extends Exception {
     UnknownOpcodeException() {
         super();
     }
+
+    UnknownOpcodeException(char opcode) {
+        super(String.format("Unknown opcode %04X", (int) opcode));
+    }
 }
@@ -0,0 +1,105 @@
+package com.blanelegant.chip8008;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Regression check that the emulator core allocates nothing while running: after warming up, a program running
+ * every class of opcode that doesn't wait for a key must not allocate a single byte, neither through
+ * {@link Chip8#tick()} nor through the block cache nor through the recompiler. Allocation is measured per thread with
+ * {@link com.sun.management.ThreadMXBean#getCurrentThreadAllocatedBytes()}.
+ *
+ * Runs with {@code mvn test}, failing the build on any allocation.
+ */
+public final class AllocationCheck {
+
+    static final int WARMUP_CYCLES = 5_000_000; // enough for every handler and block to be compiled by the JIT
+    static final int MEASURED_CYCLES = 1_000_000;
+    static final int CYCLES_PER_RUN = 1000; // as in runs of a frame or so
+
+    // a loop over every opcode class, each skip followed by a filler so either way runs on
+    static final int[] PROGRAM = {
+            0x00E0, // 200: clear the screen
+            0x6005, 0x6103, 0xC2FF, 0x6307, // V0 = 5, V1 = 3, V2 = random, V3 = 7
+            0x8010, 0x8011, 0x8012, 0x8013, 0x8014, 0x8015, 0x8016, 0x8017, 0x801E,
+            0x7001,
+            0x3005, 0x6E00, 0x4005, 0x6E00, 0x5010, 0x6E00, 0x9010, 0x6E00, // skips
+            0xE09E, 0x6E00, 0xE0A1, 0x6E00,
+            0xF229, 0xD015, // a digit of the font
+            0x00FF, 0xA050, 0xD010, 0x00C2, 0x00FB, 0x00FC, 0x00FE, // a 16x16 sprite and scrolls in high resolution
+            0xF015, 0xF007, 0xF018,
+            0xA600, 0xF333, 0xF355, 0xF365, 0xF31E, 0xF375, 0xF385, // stores out of the way of the code
+            0x2300, // call the subroutine at 0x300
+            0x6000, 0xB262, // jumps to the next instruction, at 262
+            0x1200,
+    };
+
+    private AllocationCheck() {
+
+    }
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int failures = 0;
+
+        for (String mode : new String[] { "tick", "blocks", "recompiler" }) {
+            Chip8 chip = machine(mode);
+
+            run(chip, mode, WARMUP_CYCLES);
+
+            long before = threads.getCurrentThreadAllocatedBytes();
+            run(chip, mode, MEASURED_CYCLES);
+            long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+            System.out.println(mode + ": " + allocated + " bytes allocated in " + MEASURED_CYCLES + " cycles");
+            if (allocated > 0) {
+                failures++;
+            }
+        }
+
+        if (failures > 0) {
+            System.err.println("The emulator core allocates while running");
+            System.exit(1);
+        }
+    }
+
+    private static Chip8 machine(String mode) {
+        Chip8 chip = new Chip8();
+        chip.initialize();
+        chip.setSeed(0);
+
+        for (int i = 0; i < PROGRAM.length; i++) {
+            put(chip, 0x200 + i * 2, PROGRAM[i]);
+        }
+        put(chip, 0x300, 0x00EE); // the subroutine, returning straight away
+
+        if (!mode.equals("tick")) {
+            chip.setBlockCacheEnabled(true);
+        }
+        if (mode.equals("recompiler")) {
+            chip.setRecompiler(new BlockCompiler());
+        }
+
+        return chip;
+    }
+
+    private static void put(Chip8 chip, int address, int opcode) {
+        chip.writeMemory(address, (char) (opcode >>> 8));
+        chip.writeMemory(address + 1, (char) (opcode & 0xFF));
+    }
+
+    private static void run(Chip8 chip, String mode, int cycles) {
+        try {
+            if (mode.equals("tick")) {
+                for (int i = 0; i < cycles; i++) {
+                    chip.tick();
+                }
+            } else {
+                for (int executed = 0; executed < cycles; ) {
+                    executed += chip.run(Math.min(cycles - executed, CYCLES_PER_RUN));
+                }
+            }
+        } catch (UnknownOpcodeException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Regression check that the block cache and the recompiler run code exactly as {@link Chip8#tick()} does: every ROM
+ * runs on one machine in each mode, with the same seed and keys, and the {@link SaveState}s of the machines must be
+ * identical after every frame, and after an instruction throws, the same exception must have stopped all of them.
+ * The ROMs are the programs below, which wrap I around the end of memory and overflow and underflow the stack from
+ * compiled blocks, followed by every *.ch8 file in the files and directories given as arguments.
+ *
+ * Runs with {@code mvn test} on the ROMs in cds, failing the build on any difference or on any block the recompiler
+ * fails to define.
+ */
+public final class DifferentialCheck {
+
+    static final int FRAMES = 600;
+    static final int CYCLES_PER_FRAME = 1000;
+
+    // each row holds an address followed by the code there
+
+    // FX33, FX55 and FX65 from I = FFE, wrapping around the end of 4 KB of memory, in a loop the recompiler compiles
+    static final int[][] WRAP = {
+            { 0x200, 0xAFFE, 0x6012, 0x6134, 0x7301, 0xF333, 0xF255, 0xF265, 0xF31E, 0x1200 },
+    };
+
+    // calls a subroutine until it's compiled, then overflows the stack with a call from its compiled block
+    static final int[][] STACK_OVERFLOW = {
+            { 0x200, 0x2300, 0x3164, 0x1200, 0x1320 }, // call 300 until V1 = 100, then recurse at 320
+            { 0x300, 0x7101, 0x2310, 0x00EE }, // V1++, call 310
+            { 0x310, 0x00EE },
+            { 0x320, 0x7201, 0x3211, 0x2320, 0x1300 }, // recurse until 16 calls deep, then jump to 300
+    };
+
+    // calls a subroutine until it's compiled, then jumps into it and underflows the stack returning from it
+    static final int[][] STACK_UNDERFLOW = {
+            { 0x200, 0x2210, 0x4064, 0x1210, 0x1200 }, // call 210 until V0 = 100, then jump to it
+            { 0x210, 0x7001, 0x00EE }, // V0++, return
+    };
+
+    private DifferentialCheck() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> names = new ArrayList<>(Arrays.asList("wrap", "stack overflow", "stack underflow"));
+        List<RomImage> roms = new ArrayList<>(Arrays.asList(image(WRAP), image(STACK_OVERFLOW),
+                image(STACK_UNDERFLOW)));
+
+        for (String arg : args) {
+            for (Path file : files(Paths.get(arg))) {
+                names.add(file.toString());
+                roms.add(RomImage.read(file));
+            }
+        }
+
+        BlockCompiler recompiler = new BlockCompiler();
+        int failures = 0;
+
+        for (int i = 0; i < roms.size(); i++) {
+            String difference = compare(roms.get(i), recompiler);
+
+            System.out.println(names.get(i) + ": " + (difference == null ? "OK" : difference));
+            if (difference != null) {
+                failures++;
+            }
+        }
+
+        if (recompiler.failures() > 0) {
+            System.out.println(recompiler.failures() + " blocks failed to compile");
+            failures++;
+        }
+
+        if (failures > 0) {
+            System.err.println("The block cache or the recompiler run code differently from the interpreter");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the ROM in each mode, returning the first difference between the machines or null if there's none.
+     */
+    private static String compare(RomImage rom, BlockCompiler recompiler) {
+        Chip8[] machines = { new Chip8(), new Chip8(), new Chip8() };
+        machines[1].setBlockCacheEnabled(true);
+        machines[2].setBlockCacheEnabled(true);
+        machines[2].setRecompiler(recompiler);
+
+        for (Chip8 chip : machines) {
+            chip.reset(rom);
+            chip.setCyclesPerFrame(CYCLES_PER_FRAME);
+            chip.setSeed(0);
+        }
+
+        for (int frame = 0; frame < FRAMES; frame++) {
+            String[] thrown = new String[machines.length];
+
+            for (int mode = 0; mode < machines.length; mode++) {
+                Chip8 chip = machines[mode];
+                chip.setKeys(1 << frame / 20 % 16); // each key in turn, a third of a second each
+
+                try {
+                    if (mode == 0) {
+                        for (long end = (frame + 1L) * CYCLES_PER_FRAME; chip.cycles < end; ) {
+                            chip.tick();
+                        }
+                    } else {
+                        chip.runFrame();
+                    }
+                } catch (UnknownOpcodeException | RuntimeException e) {
+                    thrown[mode] = e.getClass().getSimpleName();
+                }
+            }
+
+            byte[] expected = state(machines[0]);
+
+            for (int mode = 1; mode < machines.length; mode++) {
+                String name = mode == 1 ? "blocks" : "recompiler";
+
+                if (!String.valueOf(thrown[mode]).equals(String.valueOf(thrown[0]))) {
+                    return String.format("%s threw %s instead of %s in frame %d", name, thrown[mode], thrown[0],
+                            frame);
+                }
+
+                byte[] actual = state(machines[mode]);
+                int offset = Arrays.mismatch(expected, actual);
+
+                if (offset >= 0) {
+                    return String.format("%s state differs at byte %d after frame %d", name, offset, frame);
+                }
+            }
+
+            if (thrown[0] != null) {
+                break; // stopped in the same state everywhere
+            }
+        }
+
+        return null;
+    }
+
+    private static byte[] state(Chip8 chip) {
+        ByteBuffer buffer = ByteBuffer.allocate(SaveState.size(chip));
+        SaveState.save(chip, buffer, 0);
+        return buffer.array();
+    }
+
+    private static RomImage image(int[][] program) {
+        byte[] rom = new byte[0x200];
+
+        for (int[] row : program) {
+            for (int i = 1; i < row.length; i++) {
+                int offset = row[0] - 0x200 + (i - 1) * 2;
+
+                rom[offset] = (byte) (row[i] >>> 8);
+                rom[offset + 1] = (byte) row[i];
+            }
+        }
+
+        return new RomImage(rom);
+    }
+
+    private static List<Path> files(Path path) throws IOException {
+        List<Path> files = new ArrayList<>();
+
+        if (!Files.isDirectory(path)) {
+            files.add(path);
+            return files;
+        }
+
+        try (DirectoryStream<Path> roms = Files.newDirectoryStream(path, "*.ch8")) {
+            for (Path rom : roms) {
+                files.add(rom);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+}
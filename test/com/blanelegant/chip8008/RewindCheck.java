@@ -0,0 +1,145 @@
+package com.blanelegant.chip8008;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Regression check of {@link RewindBuffer}: a machine filling memory and the screen with random bytes is recorded
+ * frame by frame until the buffer has evicted its oldest frames, by frame count in one buffer and by bytes in the
+ * other, and is then stepped back by various amounts, down to the oldest frame left, whose keyframe was evicted.
+ * Every state stepped back to must equal the {@link SaveState} snapshot taken when that frame was recorded, also
+ * after running and recording on from a state stepped back to.
+ *
+ * Runs with {@code mvn test}, failing the build on any difference.
+ */
+public final class RewindCheck {
+
+    static final int CYCLES_PER_FRAME = 100;
+    static final int FRAMES = 403; // leaves the 40 frame buffer with an oldest frame that isn't a keyframe
+
+    // a smallest buffer, evicting by bytes long before its frame limit
+    static final int CAPACITY = 2 * (SaveState.MAX_SIZE + SaveState.MAX_SIZE / 2 + 16);
+
+    // random bytes stored from 400 on, eight at a time, and drawn as sprites; I starts over every 256 rounds
+    static final int[] PROGRAM = {
+            0xA400, // 200: I = 400
+            0xC0FF, 0xC1FF, 0xC2FF, 0xC3FF, 0xC4FF, 0xC5FF, 0xC6FF, 0xC7FF, // 202: V0-V7 = random
+            0xF755, 0xD017, // store V0-V7, moving I past them, and draw at V0, V1
+            0x7901, 0x3900, 0x1202, 0x1200, // V9++, round again unless it wrapped around to 0
+    };
+
+    private RewindCheck() {
+
+    }
+
+    public static void main(String[] args) {
+        int failures = 0;
+
+        failures += check("frame limit", new RewindBuffer(40, CAPACITY, 8));
+        failures += check("byte limit", new RewindBuffer(FRAMES * 2, CAPACITY, 4));
+
+        if (failures > 0) {
+            System.err.println("Rewinding doesn't restore the recorded states");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Records the machine into the buffer and steps it back, comparing against the snapshots taken on the way.
+     * @return the number of failures
+     */
+    private static int check(String name, RewindBuffer rewind) {
+        Chip8 chip = machine();
+        List<byte[]> states = new ArrayList<>(); // states.get(n) is the snapshot of the nth frame recorded
+
+        record(chip, rewind, states, FRAMES);
+
+        if (rewind.available() >= states.size() - 1) {
+            System.out.println(name + ": nothing was evicted");
+            return 1;
+        }
+
+        int failures = 0;
+
+        // single frames, across a keyframe, and from a state stepped back to and recorded on from
+        for (int frames : new int[] { 1, 1, 3, 9, 17 }) {
+            failures += stepBack(name, chip, rewind, states, frames);
+        }
+        record(chip, rewind, states, 30);
+        failures += stepBack(name, chip, rewind, states, 5);
+
+        // all the way to the oldest frame left, then nothing further
+        failures += stepBack(name, chip, rewind, states, Integer.MAX_VALUE);
+
+        if (rewind.rewind(chip, 1) != 0) {
+            System.out.println(name + ": stepped back past the oldest frame");
+            failures++;
+        }
+
+        System.out.println(name + ": " + (failures == 0 ? "OK" : failures + " failures") + ", "
+                + states.size() + " frames recorded, " + rewind.bytesUsed() + " bytes used");
+        return failures;
+    }
+
+    /**
+     * Steps back up to the given number of frames and compares the machine with the snapshot of the frame it's back
+     * at, forgetting the snapshots of the frames after it.
+     * @return 1 if the machine differs, otherwise 0
+     */
+    private static int stepBack(String name, Chip8 chip, RewindBuffer rewind, List<byte[]> states, int frames) {
+        int available = rewind.available();
+        int back = rewind.rewind(chip, frames);
+
+        if (back != Math.min(frames, available)) {
+            System.out.println(name + ": stepped back " + back + " frames rather than " + frames);
+            return 1;
+        }
+
+        states.subList(states.size() - back, states.size()).clear();
+
+        if (!Arrays.equals(state(chip), states.get(states.size() - 1))) {
+            System.out.println(name + ": frame " + (states.size() - 1) + " differs after stepping back " + back);
+            return 1;
+        }
+
+        return 0;
+    }
+
+    private static void record(Chip8 chip, RewindBuffer rewind, List<byte[]> states, int frames) {
+        try {
+            for (int frame = 0; frame < frames; frame++) {
+                if (!states.isEmpty()) {
+                    chip.runFrame();
+                }
+
+                rewind.record(chip);
+                states.add(state(chip));
+            }
+        } catch (UnknownOpcodeException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Chip8 machine() {
+        byte[] rom = new byte[PROGRAM.length * 2];
+
+        for (int i = 0; i < PROGRAM.length; i++) {
+            rom[i * 2] = (byte) (PROGRAM[i] >>> 8);
+            rom[i * 2 + 1] = (byte) PROGRAM[i];
+        }
+
+        Chip8 chip = new Chip8();
+        chip.reset(new RomImage(rom));
+        chip.setCyclesPerFrame(CYCLES_PER_FRAME);
+        chip.setSeed(0);
+        return chip;
+    }
+
+    private static byte[] state(Chip8 chip) {
+        ByteBuffer buffer = ByteBuffer.allocate(SaveState.size(chip));
+        SaveState.save(chip, buffer, 0);
+        return buffer.array();
+    }
+}
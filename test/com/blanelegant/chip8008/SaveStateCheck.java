@@ -0,0 +1,171 @@
+package com.blanelegant.chip8008;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Regression check of {@link SaveState} files: a machine saved, written to a file, read back and restored into a
+ * fresh machine must snapshot to the same bytes and run on exactly as the original, for 4 KB and XO-CHIP memory
+ * alike, and snapshots that are truncated, of another version or with no cycles per frame must be refused without
+ * touching the machine.
+ *
+ * Runs with {@code mvn test}, failing the build on any difference.
+ */
+public final class SaveStateCheck {
+
+    static final int FRAMES = 300;
+    static final int CYCLES_PER_FRAME = 500;
+
+    // offset of the cycles per frame in a snapshot, see the layout in SaveState
+    private static final int CYCLES_PER_FRAME_OFFSET = 6;
+
+    // FX33, FX55 and FX65 at the end of XO-CHIP memory in high resolution, with long I marking the ROM as XO-CHIP
+    static final int[] XO_PROGRAM = {
+            0x00FF, 0xF000, 0xFFFE, 0xC2FF, 0x7301, // 200: high resolution, I = FFFE, V2 = random, V3++
+            0xF333, 0xF355, 0xF365, 0xF215, // BCD of V3, store and load V0-V3, delay timer = V2
+            0xA000, 0xD01F, 0x1208, // draw, jump back to V3++
+    };
+
+    private SaveStateCheck() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path file = Files.createTempFile("chip8008", ".c8s");
+        int failures = 0;
+
+        try {
+            failures += roundTrip("4 KB", rom(AllocationCheck.PROGRAM, 0x00EE), file);
+            failures += roundTrip("XO-CHIP", rom(XO_PROGRAM, 0), file);
+            failures += rejects(file);
+        } finally {
+            Files.delete(file);
+        }
+
+        if (failures > 0) {
+            System.err.println("Save states don't restore the machine they were saved from");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Saves a running machine to the file halfway, restores it into another one and runs both on side by side.
+     * @return the number of failures
+     */
+    private static int roundTrip(String name, RomImage rom, Path file) throws IOException {
+        Chip8 original = machine(rom);
+        Chip8 restored = new Chip8();
+
+        try {
+            for (int frame = 0; frame < FRAMES / 2; frame++) {
+                original.setKeys(1 << frame % 16);
+                original.runFrame();
+            }
+
+            SaveState.write(original, file);
+            SaveState.read(restored, file);
+
+            if (!Arrays.equals(state(original), state(restored))) {
+                System.out.println(name + ": the restored machine differs from the saved one");
+                return 1;
+            }
+
+            restored.setBlockCacheEnabled(true);
+            restored.setRecompiler(new BlockCompiler());
+
+            for (int frame = FRAMES / 2; frame < FRAMES; frame++) {
+                original.setKeys(1 << frame % 16);
+                original.runFrame();
+                restored.setKeys(1 << frame % 16);
+                restored.runFrame();
+            }
+        } catch (UnknownOpcodeException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (!Arrays.equals(state(original), state(restored))) {
+            System.out.println(name + ": the restored machine ran on differently");
+            return 1;
+        }
+
+        System.out.println(name + ": OK after " + original.cycles + " cycles");
+        return 0;
+    }
+
+    /**
+     * Checks that broken snapshots are refused, leaving the machine restored into as it was.
+     * @return the number of failures
+     */
+    private static int rejects(Path file) throws IOException {
+        Chip8 chip = machine(rom(AllocationCheck.PROGRAM, 0x00EE));
+        ByteBuffer valid = ByteBuffer.allocate(SaveState.size(chip));
+        SaveState.save(chip, valid, 0);
+
+        ByteBuffer noCycles = ByteBuffer.allocate(valid.capacity()).put(valid.array());
+        noCycles.putShort(CYCLES_PER_FRAME_OFFSET, (short) 0);
+        ByteBuffer otherVersion = ByteBuffer.allocate(valid.capacity()).put(valid.array());
+        otherVersion.putShort(4, (short) (SaveState.VERSION + 1));
+        ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(valid.array(), valid.capacity() - 1));
+
+        int failures = 0;
+
+        for (ByteBuffer snapshot : new ByteBuffer[] { noCycles, otherVersion, truncated }) {
+            Chip8 target = machine(rom(XO_PROGRAM, 0));
+            byte[] before = state(target);
+
+            try {
+                SaveState.restore(target, snapshot, 0);
+                failures++;
+            } catch (IllegalArgumentException e) {
+                if (!Arrays.equals(before, state(target))) {
+                    failures++;
+                }
+            }
+        }
+
+        // files too, as an IOException
+        Files.write(file, noCycles.array());
+        try {
+            SaveState.read(chip, file);
+            failures++;
+        } catch (IOException e) {
+            // refused
+        }
+
+        System.out.println("broken snapshots: " + (failures == 0 ? "OK" : failures + " accepted"));
+        return failures;
+    }
+
+    private static Chip8 machine(RomImage rom) {
+        Chip8 chip = new Chip8();
+        chip.reset(rom);
+        chip.setCyclesPerFrame(CYCLES_PER_FRAME);
+        chip.setSeed(0);
+        return chip;
+    }
+
+    private static byte[] state(Chip8 chip) {
+        ByteBuffer buffer = ByteBuffer.allocate(SaveState.size(chip));
+        SaveState.save(chip, buffer, 0);
+        return buffer.array();
+    }
+
+    /**
+     * Image of the program at 0x200, with a subroutine at 0x300 made of the given instruction unless that's 0.
+     */
+    private static RomImage rom(int[] program, int subroutine) {
+        byte[] rom = new byte[0x102];
+
+        for (int i = 0; i < program.length; i++) {
+            rom[i * 2] = (byte) (program[i] >>> 8);
+            rom[i * 2 + 1] = (byte) program[i];
+        }
+        rom[0x100] = (byte) (subroutine >>> 8);
+        rom[0x101] = (byte) subroutine;
+
+        return new RomImage(rom);
+    }
+}